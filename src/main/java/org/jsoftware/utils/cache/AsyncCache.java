@@ -0,0 +1,53 @@
+package org.jsoftware.utils.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Cache of values loaded asynchronously
+ * @author m-szalik
+ */
+public interface AsyncCache<K,V> {
+
+    /**
+     * Thread-safe method fetching cache object without blocking caller's thread
+     * @param key cache key
+     * @param loader starts loading of an object, called only if there is no value (nor value being loaded) for the key
+     * @return future of an object from cache or loaded by loader
+     */
+    CompletableFuture<V> fetchAsync(K key, Function<? super K, ? extends CompletionStage<V>> loader);
+
+    /**
+     * Thread-safe method fetching cache object without blocking caller's thread
+     * @param key cache key
+     * @param supplier object supplier, called in cache's executor
+     * @return future of an object from cache or produced by supplier
+     */
+    CompletableFuture<V> fetchAsync(K key, Supplier<V> supplier);
+
+    /**
+     * @param key cache key
+     * @return future of an object from cache or <code>null</code> if there is no such object
+     */
+    CompletableFuture<V> getIfPresent(K key);
+
+    /**
+     * @param key cache key
+     * @param value future of an object to cache
+     */
+    void put(K key, CompletableFuture<V> value);
+
+    /**
+     * Remove an object from cache
+     * @param key cache key
+     */
+    void invalidate(K key);
+
+    /**
+     * Remove all objects from cache
+     */
+    void invalidateAll();
+
+}
@@ -0,0 +1,157 @@
+package org.jsoftware.utils.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces loads of single keys requested by concurrent threads into calls of one bulk loader.
+ * <p>The first thread that loads a key opens a batch and waits up to <code>window</code> for other keys,
+ * or until the batch reaches its maximum size. Then it calls the bulk loader with all keys of the batch and passes
+ * each waiting thread its value. No additional threads are used.</p>
+ * <p>A cache calls the loader holding the load lock of the entry, so the first fetch of a key waits for the window
+ * and the bulk loader call, and other fetches of the same key wait for it on the entry. Keep the window short - comparable
+ * to the latency of the bulk loader - and well below {@link SimpleCache.Builder#loadWaitTimeout(long, TimeUnit)},
+ * otherwise such fetches fail with {@link CacheLoadTimeoutException}.</p>
+ * <pre>
+ * BatchingLoader&lt;String,Product&gt; loader = new BatchingLoader&lt;&gt;(productDao::findAll, 100, 2, TimeUnit.MILLISECONDS);
+ * SimpleCache&lt;String,Product&gt; cache = SimpleCache.&lt;String,Product&gt;builder().batchLoader(loader)...build();
+ * </pre>
+ * @param <K> key type
+ * @param <V> value type
+ * @author m-szalik
+ * @see SimpleCache.Builder#batchLoader(BatchingLoader)
+ */
+public class BatchingLoader<K,V> {
+    private static final Object ABSENT = new Object();
+    private final Function<Set<K>, Map<K,V>> loader;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private Batch<K> current; // guarded by this
+
+    /**
+     * @param loader bulk loader, keys missing in its result are loaded by fallback suppliers
+     * @param maxBatchSize maximum number of keys of one loader call
+     * @param window maximum time the first key of a batch waits for other keys
+     * @param unit unit of <code>window</code>
+     */
+    public BatchingLoader(Function<Set<K>, Map<K,V>> loader, int maxBatchSize, long window, TimeUnit unit) {
+        if (loader == null) {
+            throw new IllegalArgumentException("Loader cannot be null.");
+        }
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Maximum batch size must be greater then zero.");
+        }
+        if (window < 0) {
+            throw new IllegalArgumentException("Window cannot be negative.");
+        }
+        this.loader = loader;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = unit.toNanos(window);
+    }
+
+    /**
+     * @param key key to load
+     * @return value loaded by the bulk loader, <code>null</code> if it did not return the key
+     */
+    public V load(K key) {
+        return load(key, null);
+    }
+
+    /**
+     * @param key key to load
+     * @param fallback supplier of the value if the bulk loader did not return the key, it can be <code>null</code>
+     * @return loaded value
+     */
+    @SuppressWarnings("unchecked")
+    public V load(K key, Supplier<V> fallback) {
+        Batch<K> batch;
+        CompletableFuture<Object> future;
+        boolean leader = false;
+        synchronized (this) {
+            if (current == null) {
+                current = new Batch<>();
+                leader = true;
+            }
+            batch = current;
+            future = batch.futures.computeIfAbsent(key, k -> new CompletableFuture<>());
+            if (batch.futures.size() >= maxBatchSize) {
+                current = null;
+                notifyAll(); // wake up the leader
+            }
+        }
+        if (leader) {
+            awaitBatch(batch);
+            run(batch);
+        }
+        Object value;
+        try {
+            value = future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+        if (value == ABSENT) {
+            return fallback == null ? null : fallback.get();
+        }
+        return (V) value;
+    }
+
+    /**
+     * Wait until the batch is full or its window passes, the batch is closed then.
+     */
+    private synchronized void awaitBatch(Batch<K> batch) {
+        long deadline = System.nanoTime() + windowNanos;
+        boolean interrupted = false;
+        while (current == batch) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                current = null;
+                break;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(Batch<K> batch) {
+        Map<K,V> loaded;
+        try {
+            loaded = loader.apply(Collections.unmodifiableSet(batch.futures.keySet()));
+        } catch (RuntimeException | Error e) {
+            batch.futures.values().forEach(f -> f.completeExceptionally(e));
+            return;
+        }
+        batch.futures.forEach((k, f) -> {
+            if (loaded != null && loaded.containsKey(k)) {
+                f.complete(loaded.get(k));
+            } else {
+                f.complete(ABSENT);
+            }
+        });
+    }
+
+
+
+    private static final class Batch<K> {
+        private final Map<K,CompletableFuture<Object>> futures = new LinkedHashMap<>(); // modified holding loader's lock until the batch is closed
+    }
+
+}
@@ -1,6 +1,12 @@
 package org.jsoftware.utils.cache;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -17,4 +23,54 @@ public interface Cache<K,V> extends Map<K,V> {
      */
     V fetch(K key, Supplier<V> supplier);
 
+    /**
+     * Put cache object with its own ttl
+     * @param key cache key
+     * @param value cache object
+     * @param ttl time to live of the entry
+     * @param unit unit of <code>ttl</code>
+     * @return previous object
+     * @throws UnsupportedOperationException if the cache does not support ttl of an entry
+     */
+    default V put(K key, V value, long ttl, TimeUnit unit) {
+        throw new UnsupportedOperationException("Ttl of an entry is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Fetch many cache objects, missing ones are loaded by a single <code>loader</code> call
+     * @param keys cache keys
+     * @param loader loads objects of keys missing in the cache, keys it does not return are not cached
+     * @return objects form cache or produced by loader, keys not returned by loader are absent
+     */
+    default Map<K,V> fetchAll(Collection<K> keys, Function<Set<K>, Map<K,V>> loader) {
+        Map<K,V> result = new LinkedHashMap<>();
+        Set<K> missing = new LinkedHashSet<>();
+        for(K key : keys) {
+            V value = get(key);
+            if (value == null) {
+                missing.add(key);
+            } else {
+                result.put(key, value);
+            }
+        }
+        if (! missing.isEmpty()) {
+            Map<K,V> loaded = loader.apply(missing);
+            for(K key : missing) {
+                if (loaded.containsKey(key)) {
+                    V value = loaded.get(key);
+                    put(key, value);
+                    result.put(key, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return snapshot of cache statistics, empty statistics if the cache does not record them
+     */
+    default CacheStats stats() {
+        return CacheStats.empty();
+    }
+
 }
\ No newline at end of file
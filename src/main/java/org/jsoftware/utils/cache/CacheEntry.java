@@ -0,0 +1,226 @@
+package org.jsoftware.utils.cache;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Entry of {@link SimpleCache}, exposed by its views as {@link Map.Entry}.
+ * <p>To keep entries small it holds its load lock and links of the LRU list itself.
+ * The load lock is reentrant, waiting threads wait on the entry's monitor.</p>
+ * @param <K> key type
+ * @param <V> value type
+ * @author m-szalik
+ */
+class CacheEntry<K,V> implements Map.Entry<K,V> {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<CacheEntry> REFRESHING = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "refreshing");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<CacheEntry> TIMEOUT = AtomicLongFieldUpdater.newUpdater(CacheEntry.class, "timeout");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<CacheEntry,Thread> LOADER = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, Thread.class, "loader");
+    private final K key;
+    private volatile Thread loader; // owner of the load lock
+    private int loadHolds; // written by the loader
+    private volatile long timeout = Long.MIN_VALUE;
+    private long writeTime; // written before timeout
+    private volatile Object value; // V or ValueReference<?,V>
+    private volatile int refreshing;
+    private Object timerNode;
+    private volatile String[] tags; // written holding cache lock, never modified
+    CacheEntry<K,V> prev, next; // LRU list, guarded by cache lock
+    int weight; // guarded by cache lock
+
+    CacheEntry(K key) {
+        this.key = key;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getValue() {
+        Object v = value;
+        if (v instanceof ValueReference) {
+            return ((ValueReference<?,V>) v).get();
+        }
+        return (V) v;
+    }
+
+    /**
+     * @return <code>true</code> if value held by a reference was collected
+     */
+    public boolean isCollected() {
+        Object v = value;
+        return v instanceof ValueReference && ((ValueReference<?,?>) v).get() == null;
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, cache views are read-only
+     */
+    @Override
+    public V setValue(V value) {
+        throw new UnsupportedOperationException("Cache entry cannot be modified.");
+    }
+
+    public long getWriteTime() {
+        return writeTime;
+    }
+
+    /**
+     * @return <code>true</code> if timeout was changed
+     */
+    public boolean casTimeout(long expect, long update) {
+        return TIMEOUT.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * Acquire load lock if it is free or held by the current thread.
+     * @return <code>true</code> if the lock was acquired
+     */
+    public boolean tryLockLoad() {
+        Thread current = Thread.currentThread();
+        if (LOADER.compareAndSet(this, null, current)) {
+            loadHolds = 1;
+            return true;
+        }
+        if (loader == current) {
+            loadHolds++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Acquire load lock, waiting uninterruptibly until it is released.
+     */
+    public void lockLoad() {
+        if (tryLockLoad()) {
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (this) {
+            while (! tryLockLoad()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Acquire load lock, waiting at most <code>timeoutMillis</code> until it is released.
+     * @return <code>true</code> if the lock was acquired
+     * @throws InterruptedException if current thread was interrupted while waiting
+     */
+    public boolean tryLockLoad(long timeoutMillis) throws InterruptedException {
+        if (tryLockLoad()) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (this) {
+            while (! tryLockLoad()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @throws IllegalMonitorStateException if current thread does not hold the lock
+     */
+    public void unlockLoad() {
+        if (loader != Thread.currentThread()) {
+            throw new IllegalMonitorStateException();
+        }
+        if (--loadHolds == 0) {
+            synchronized (this) {
+                loader = null;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if a value is being loaded
+     */
+    public boolean isLoading() {
+        return loader != null;
+    }
+
+    public Object getTimerNode() {
+        return timerNode;
+    }
+
+    public void setTimerNode(Object timerNode) {
+        this.timerNode = timerNode;
+    }
+
+    public String[] getTags() {
+        return tags;
+    }
+
+    public void setTags(String[] tags) {
+        this.tags = tags;
+    }
+
+    /**
+     * @return <code>true</code> if caller should refresh the entry, <code>false</code> if other refresh is in progress
+     */
+    public boolean startRefresh() {
+        return REFRESHING.compareAndSet(this, 0, 1);
+    }
+
+    public void endRefresh() {
+        refreshing = 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (! (o instanceof Map.Entry)) { return false; }
+        Map.Entry<?,?> that = (Map.Entry<?,?>) o;
+        return Objects.equals(key, that.getKey()) && Objects.equals(getValue(), that.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + getValue();
+    }
+
+    public void put(long writeTime, long timeout, V value) {
+        this.value = value;
+        this.writeTime = writeTime;
+        this.timeout = timeout; // written last, readers that see valid timeout see the value too
+    }
+
+    public void putReference(long writeTime, long timeout, ValueReference<?,V> reference) {
+        this.value = reference;
+        this.writeTime = writeTime;
+        this.timeout = timeout;
+    }
+}
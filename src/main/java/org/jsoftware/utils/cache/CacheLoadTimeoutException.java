@@ -0,0 +1,18 @@
+package org.jsoftware.utils.cache;
+
+/**
+ * Thrown when a fetch waits for a value loaded by other thread longer then allowed.
+ * @author m-szalik
+ * @see SimpleCache.Builder#loadWaitTimeout(long, java.util.concurrent.TimeUnit)
+ */
+public class CacheLoadTimeoutException extends IllegalStateException {
+    private static final long serialVersionUID = 2310496170386716032L;
+
+    public CacheLoadTimeoutException(String message) {
+        super(message);
+    }
+
+    public CacheLoadTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,268 @@
+package org.jsoftware.utils.cache;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named {@link SimpleCache} regions sharing one capacity.
+ * <p>Sum of regions sizes never exceeds the capacity. Each region keeps a minimum share of it, the rest is divided
+ * by {@link #rebalance()} in proportion to hits of regions since the previous rebalance - hit rate weighted by traffic,
+ * so regions that profit from the room get it. Sizes move half way to the new division at each rebalance.</p>
+ * <p>Capacity is a number of entries, or weight if regions have a {@link Weigher} - all regions of a manager
+ * are sized the same way.</p>
+ * <pre>
+ * CacheManager manager = new CacheManager(1000000, 1, TimeUnit.MINUTES);
+ * SimpleCache&lt;String,Product&gt; products = manager.createRegion("products", SimpleCache.&lt;String,Product&gt;builder().expireAfterWrite(10, TimeUnit.MINUTES));
+ * </pre>
+ * @author m-szalik
+ */
+public class CacheManager implements Closeable {
+    private static final double MINIMUM_SHARE = 0.2;
+    private final long capacity;
+    private final Map<String,Region> regions = new LinkedHashMap<>(); // guarded by this
+    private final ScheduledFuture<?> rebalanceTask;
+
+    /**
+     * Manager rebalancing regions only when {@link #rebalance()} is called.
+     * @param capacity capacity shared by all regions
+     */
+    public CacheManager(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater then zero.");
+        }
+        this.capacity = capacity;
+        this.rebalanceTask = null;
+    }
+
+    /**
+     * Manager rebalancing regions periodically, the task stops when the manager is closed or garbage collected.
+     * @param capacity capacity shared by all regions
+     * @param rebalancePeriod time between rebalances
+     * @param unit unit of <code>rebalancePeriod</code>
+     */
+    public CacheManager(long capacity, long rebalancePeriod, TimeUnit unit) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater then zero.");
+        }
+        if (rebalancePeriod <= 0) {
+            throw new IllegalArgumentException("Rebalance period must be greater then zero.");
+        }
+        this.capacity = capacity;
+        this.rebalanceTask = RebalanceTask.schedule(this, rebalancePeriod, unit);
+    }
+
+    /**
+     * Create a region, sizes of all regions are divided equally then.
+     * @param name name of the region
+     * @param builder builder of the region with ttl and other settings, but without size
+     * @param <K> key type
+     * @param <V> value type
+     * @return new region
+     * @throws IllegalArgumentException if region of the name exists, capacity is smaller then number of regions
+     * or the builder has a weigher and other regions have not, or vice versa
+     * @throws IllegalStateException if size is set by the builder
+     */
+    public synchronized <K,V> SimpleCache<K,V> createRegion(String name, SimpleCache.Builder<K,V> builder) {
+        if (regions.containsKey(name)) {
+            throw new IllegalArgumentException("Region " + name + " already exists.");
+        }
+        if (regions.size() >= capacity) {
+            throw new IllegalArgumentException("Capacity " + capacity + " is too small for another region.");
+        }
+        if (! regions.isEmpty() && regions.values().iterator().next().weighted != builder.hasWeigher()) {
+            throw new IllegalArgumentException("Region " + name + (builder.hasWeigher() ? " has a weigher" : " has no weigher") + ", unlike other regions.");
+        }
+        long[] sizes = divide(regions.size() + 1, new long[regions.size() + 1]);
+        SimpleCache<K,V> cache = builder.buildRegion(sizes[regions.size()]);
+        resize(new ArrayList<>(regions.values()), sizes);
+        regions.put(name, new Region(cache, builder.hasWeigher()));
+        return cache;
+    }
+
+    /**
+     * @param name name of the region
+     * @param <K> key type
+     * @param <V> value type
+     * @return region or <code>null</code> if there is no region of the name
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <K,V> SimpleCache<K,V> getRegion(String name) {
+        Region region = regions.get(name);
+        return region == null ? null : (SimpleCache<K,V>) region.cache;
+    }
+
+    /**
+     * Remove the region from the manager, its capacity is given to other regions in proportion to their sizes.
+     * @param name name of the region
+     * @return <code>true</code> if region existed
+     */
+    public synchronized boolean removeRegion(String name) {
+        if (regions.remove(name) == null) {
+            return false;
+        }
+        if (! regions.isEmpty()) {
+            List<Region> list = new ArrayList<>(regions.values());
+            long[] sizes = new long[list.size()];
+            long sum = 0;
+            for(int i=0; i<sizes.length; i++) {
+                sizes[i] = list.get(i).cache.getMaximumWeight();
+                sum += sizes[i];
+            }
+            long total = 0;
+            for(int i=0; i<sizes.length; i++) {
+                sizes[i] += (long) ((double) (capacity - sum) * sizes[i] / sum);
+                total += sizes[i];
+            }
+            sizes[largest(sizes)] += capacity - total;
+            resize(list, sizes);
+        }
+        return true;
+    }
+
+    /**
+     * @return maximum sizes of regions
+     */
+    public synchronized Map<String,Long> getRegionSizes() {
+        Map<String,Long> sizes = new LinkedHashMap<>();
+        regions.forEach((name, region) -> sizes.put(name, region.cache.getMaximumWeight()));
+        return sizes;
+    }
+
+    /**
+     * Divide capacity by hits of regions since previous rebalance.
+     */
+    public synchronized void rebalance() {
+        if (regions.isEmpty()) {
+            return;
+        }
+        List<Region> list = new ArrayList<>(regions.values());
+        long[] hits = new long[list.size()];
+        for(int i=0; i<hits.length; i++) {
+            Region region = list.get(i);
+            CacheStats stats = region.cache.stats();
+            hits[i] = stats.minus(region.lastStats).getHitCount();
+            region.lastStats = stats;
+        }
+        long[] target = divide(list.size(), hits);
+        long[] sizes = new long[target.length];
+        long total = 0;
+        for(int i=0; i<sizes.length; i++) {
+            sizes[i] = Math.max(1, (list.get(i).cache.getMaximumWeight() + target[i]) / 2);
+            total += sizes[i];
+        }
+        sizes[largest(sizes)] -= total - capacity; // rounding
+        resize(list, sizes);
+    }
+
+    /**
+     * Stop periodic rebalance, regions can be used after the manager is closed.
+     */
+    @Override
+    public void close() {
+        if (rebalanceTask != null) {
+            rebalanceTask.cancel(false);
+        }
+    }
+
+    /**
+     * @param scores scores of regions, capacity over minimum shares is divided in proportion to them
+     * @return sizes of regions
+     */
+    private long[] divide(int count, long[] scores) {
+        long minimum = Math.max(1, (long) (capacity * MINIMUM_SHARE / count));
+        long flexible = capacity - minimum * count;
+        long sum = 0;
+        for(long score : scores) {
+            sum += score;
+        }
+        long[] sizes = new long[count];
+        long total = 0;
+        for(int i=0; i<count; i++) {
+            double share = sum == 0 ? 1.0 / count : (double) scores[i] / sum;
+            sizes[i] = minimum + (long) (flexible * share);
+            total += sizes[i];
+        }
+        sizes[largest(sizes)] += capacity - total;
+        return sizes;
+    }
+
+    private static int largest(long[] sizes) {
+        int largest = 0;
+        for(int i=1; i<sizes.length; i++) {
+            if (sizes[i] > sizes[largest]) {
+                largest = i;
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Shrink regions first, so the capacity is never exceeded.
+     * @param sizes new sizes of regions, it may contain more elements then <code>regions</code>
+     */
+    private static void resize(List<Region> regions, long[] sizes) {
+        for(int i=0; i<regions.size(); i++) {
+            if (sizes[i] < regions.get(i).cache.getMaximumWeight()) {
+                regions.get(i).cache.setMaximumWeight(sizes[i]);
+            }
+        }
+        for(int i=0; i<regions.size(); i++) {
+            if (sizes[i] > regions.get(i).cache.getMaximumWeight()) {
+                regions.get(i).cache.setMaximumWeight(sizes[i]);
+            }
+        }
+    }
+
+
+
+    /**
+     * Holds the manager weakly, so a manager that is not closed can be garbage collected.
+     */
+    private static final class RebalanceTask implements Runnable {
+        private final WeakReference<CacheManager> managerRef;
+        private volatile ScheduledFuture<?> future;
+
+        private RebalanceTask(CacheManager manager) {
+            this.managerRef = new WeakReference<>(manager);
+        }
+
+        static ScheduledFuture<?> schedule(CacheManager manager, long period, TimeUnit unit) {
+            RebalanceTask task = new RebalanceTask(manager);
+            task.future = CacheThreads.scheduler().scheduleWithFixedDelay(task, period, period, unit);
+            return task.future;
+        }
+
+        @Override
+        public void run() {
+            CacheManager manager = managerRef.get();
+            if (manager == null) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+            } else {
+                manager.rebalance();
+            }
+        }
+    }
+
+
+
+    private static final class Region {
+        private final SimpleCache<?,?> cache;
+        private final boolean weighted;
+        private CacheStats lastStats;
+
+        private Region(SimpleCache<?,?> cache, boolean weighted) {
+            this.cache = cache;
+            this.weighted = weighted;
+            this.lastStats = cache.stats();
+        }
+    }
+
+}
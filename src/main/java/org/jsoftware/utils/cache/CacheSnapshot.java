@@ -0,0 +1,201 @@
+package org.jsoftware.utils.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves valid entries of a cache to a file and loads them back, so a restarted application does not start with an empty cache.
+ * <p>File contains keys, values and expiration times of entries. It is written to a temporary file first and then moved,
+ * so a failed save does not overwrite the previous snapshot. Loading parses the file in chunks,
+ * it never reads whole file into memory. Entries expired in the meantime are skipped.</p>
+ * @param <K> key type
+ * @param <V> value type
+ * @author m-szalik
+ */
+public class CacheSnapshot<K,V> {
+    private static final int MAGIC = 0x4A534353;
+    private static final byte VERSION = 1;
+    private static final int END = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final Clock clock;
+
+    /**
+     * @param keySerializer keys serializer
+     * @param valueSerializer values serializer
+     */
+    public CacheSnapshot(Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(keySerializer, valueSerializer, Clock.systemUTC());
+    }
+
+    /**
+     * @param keySerializer keys serializer
+     * @param valueSerializer values serializer
+     * @param clock clock entries expiration is checked with, it should be the clock of the cache
+     */
+    public CacheSnapshot(Serializer<K> keySerializer, Serializer<V> valueSerializer, Clock clock) {
+        if (keySerializer == null || valueSerializer == null) {
+            throw new IllegalArgumentException("Serializer cannot be null.");
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null.");
+        }
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.clock = clock;
+    }
+
+    /**
+     * Save valid entries of the cache, entries with <code>null</code> values are skipped.
+     * @param cache cache to save
+     * @param file snapshot file
+     * @return number of saved entries
+     * @throws IOException if file cannot be written
+     */
+    public int save(SimpleCache<K,V> cache, Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.putInt(MAGIC).put(VERSION);
+            for(CacheEntry<K,V> ce : cache.entries()) {
+                long timeout = ce.getTimeout();
+                V value = ce.getValue();
+                if (timeout <= clock.millis() || value == null) {
+                    continue;
+                }
+                byte[] key = keySerializer.serialize(ce.getKey());
+                byte[] data = valueSerializer.serialize(value);
+                write(channel, buffer, key);
+                write(channel, buffer, data);
+                ensureWritable(channel, buffer, Long.BYTES);
+                buffer.putLong(timeout);
+                count++;
+            }
+            ensureWritable(channel, buffer, Integer.BYTES);
+            buffer.putInt(END);
+            flush(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Put entries of a snapshot into the cache, each of them with its remaining ttl.
+     * @param cache cache to load entries to, it must support {@link Cache#put(Object, Object, long, TimeUnit)}
+     * @param file snapshot file
+     * @return number of loaded entries
+     * @throws IOException if file cannot be read or it is not a valid snapshot
+     */
+    public int load(Cache<K,V> cache, Path file) throws IOException {
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.flip();
+            buffer = ensureReadable(channel, buffer, Integer.BYTES + 1);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("File " + file + " is not a cache snapshot.");
+            }
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of cache snapshot " + file + ".");
+            }
+            while (true) {
+                buffer = ensureReadable(channel, buffer, Integer.BYTES);
+                int keyLength = buffer.getInt();
+                if (keyLength == END) {
+                    break;
+                }
+                checkLength(channel, buffer, keyLength, Integer.BYTES, file);
+                buffer = ensureReadable(channel, buffer, keyLength + Integer.BYTES);
+                byte[] key = new byte[keyLength];
+                buffer.get(key);
+                int dataLength = buffer.getInt();
+                checkLength(channel, buffer, dataLength, Long.BYTES, file);
+                buffer = ensureReadable(channel, buffer, dataLength + Long.BYTES);
+                byte[] data = new byte[dataLength];
+                buffer.get(data);
+                long ttl = buffer.getLong() - clock.millis();
+                if (ttl > 0) {
+                    cache.put(keySerializer.deserialize(key), valueSerializer.deserialize(data), ttl, TimeUnit.MILLISECONDS);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, byte[] data) throws IOException {
+        ensureWritable(channel, buffer, Integer.BYTES);
+        buffer.putInt(data.length);
+        if (data.length > buffer.remaining()) {
+            flush(channel, buffer);
+            if (data.length > buffer.capacity()) {
+                ByteBuffer large = ByteBuffer.wrap(data);
+                while (large.hasRemaining()) {
+                    channel.write(large);
+                }
+                return;
+            }
+        }
+        buffer.put(data);
+    }
+
+    private static void ensureWritable(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Check a length read from the file before a buffer of it is allocated.
+     * @param following number of bytes following the data of the length
+     * @throws IOException if the length is negative or the rest of the file is shorter
+     */
+    private static void checkLength(FileChannel channel, ByteBuffer buffer, int length, int following, Path file) throws IOException {
+        if (length < 0 || (long) length + following > buffer.remaining() + channel.size() - channel.position()) {
+            throw new IOException("Corrupted cache snapshot " + file + ".");
+        }
+    }
+
+    /**
+     * @return buffer with at least <code>bytes</code> remaining, a larger one if it does not fit in the current one
+     */
+    private static ByteBuffer ensureReadable(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        if (bytes > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(bytes);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of cache snapshot.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
@@ -0,0 +1,152 @@
+package org.jsoftware.utils.cache;
+
+import java.io.Serializable;
+
+/**
+ * Immutable snapshot of cache statistics
+ * @author m-szalik
+ * @see Cache#stats()
+ */
+public final class CacheStats implements Serializable {
+    private static final long serialVersionUID = -2390618937615324717L;
+    private static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0, 0, 0, 0);
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long evictionCount;
+    private final long expirationCount;
+
+    /**
+     * @param hitCount number of lookups that found a valid entry
+     * @param missCount number of lookups that did not find a valid entry
+     * @param loadSuccessCount number of values loaded successfully
+     * @param loadFailureCount number of loads that threw an exception
+     * @param totalLoadTime time spent loading values in nanoseconds
+     * @param evictionCount number of entries evicted because cache was full
+     * @param expirationCount number of expired entries removed or reloaded
+     */
+    public CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount, long totalLoadTime, long evictionCount, long expirationCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+    }
+
+    /**
+     * @return statistics with all counters equal to zero
+     */
+    public static CacheStats empty() {
+        return EMPTY;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * @return time spent loading values in nanoseconds
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * @return number of lookups, hits plus misses
+     */
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @return ratio of hits to lookups, <code>1.0</code> if there were no lookups
+     */
+    public double getHitRate() {
+        long requestCount = getRequestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * @return ratio of misses to lookups, <code>0.0</code> if there were no lookups
+     */
+    public double getMissRate() {
+        long requestCount = getRequestCount();
+        return requestCount == 0 ? 0.0 : (double) missCount / requestCount;
+    }
+
+    /**
+     * @return average time of loading a value in nanoseconds
+     */
+    public double getAverageLoadPenalty() {
+        long loadCount = loadSuccessCount + loadFailureCount;
+        return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+    }
+
+    /**
+     * @param other earlier snapshot
+     * @return statistics of the period between <code>other</code> and this snapshot
+     */
+    public CacheStats minus(CacheStats other) {
+        return new CacheStats(
+                Math.max(0, hitCount - other.hitCount),
+                Math.max(0, missCount - other.missCount),
+                Math.max(0, loadSuccessCount - other.loadSuccessCount),
+                Math.max(0, loadFailureCount - other.loadFailureCount),
+                Math.max(0, totalLoadTime - other.totalLoadTime),
+                Math.max(0, evictionCount - other.evictionCount),
+                Math.max(0, expirationCount - other.expirationCount));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        CacheStats that = (CacheStats) o;
+        return hitCount == that.hitCount && missCount == that.missCount && loadSuccessCount == that.loadSuccessCount
+                && loadFailureCount == that.loadFailureCount && totalLoadTime == that.totalLoadTime
+                && evictionCount == that.evictionCount && expirationCount == that.expirationCount;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = hitCount;
+        h = 31 * h + missCount;
+        h = 31 * h + loadSuccessCount;
+        h = 31 * h + loadFailureCount;
+        h = 31 * h + totalLoadTime;
+        h = 31 * h + evictionCount;
+        h = 31 * h + expirationCount;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hitCount + ", misses=" + missCount + ", loadSuccesses=" + loadSuccessCount
+                + ", loadFailures=" + loadFailureCount + ", totalLoadTime=" + totalLoadTime + "ns, evictions=" + evictionCount
+                + ", expirations=" + expirationCount + '}';
+    }
+}
@@ -0,0 +1,35 @@
+package org.jsoftware.utils.cache;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Daemon threads for caches' background maintenance
+ * @author m-szalik
+ */
+final class CacheThreads implements ThreadFactory {
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private CacheThreads() {
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "cache-maintenance-" + threadCount.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * @return scheduler shared by all caches, tasks run there must be short
+     */
+    static ScheduledExecutorService scheduler() {
+        return SchedulerHolder.SCHEDULER;
+    }
+
+    private static final class SchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new CacheThreads());
+    }
+}
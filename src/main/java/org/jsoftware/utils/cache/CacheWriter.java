@@ -0,0 +1,44 @@
+package org.jsoftware.utils.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes values put to a cache to its backing store, for instance a database.
+ * <p>Called by the thread that modifies the cache, before the cache is modified. If it throws an exception the cache is not modified.
+ * It is called holding lock of the modified entry, so writes of a key reach the store in the same order as the cache.
+ * Loaded, evicted and expired entries are not written.</p>
+ * @param <K> key type
+ * @param <V> value type
+ * @author m-szalik
+ * @see SimpleCache.Builder#writer(CacheWriter)
+ * @see WriteBehindWriter
+ */
+public interface CacheWriter<K,V> {
+
+    /**
+     * @param key key put to the cache
+     * @param value value put to the cache
+     */
+    void write(K key, V value);
+
+    /**
+     * @param key key removed from the cache
+     */
+    void delete(K key);
+
+    /**
+     * @param entries entries put to the cache, by default written one by one
+     */
+    default void writeAll(Map<? extends K, ? extends V> entries) {
+        entries.forEach(this::write);
+    }
+
+    /**
+     * @param keys keys removed from the cache, by default deleted one by one
+     */
+    default void deleteAll(Collection<? extends K> keys) {
+        keys.forEach(this::delete);
+    }
+
+}
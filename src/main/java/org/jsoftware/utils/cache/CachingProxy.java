@@ -0,0 +1,157 @@
+package org.jsoftware.utils.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Memoizes methods of an interface in caches, so results of a service do not have to be wrapped by {@link Cache#fetch(Object, Supplier)} by hand.
+ * <p>Each memoized method has its own cache. An argument of single argument methods is the cache key itself,
+ * so a call allocates no key; keys of methods with more arguments, or an array argument, wrap the arguments array.
+ * Exceptions thrown by the service are not cached.</p>
+ * <pre>
+ * ProductService products = CachingProxy.create(ProductService.class, productService,
+ *         () -&gt; new SimpleCache&lt;&gt;(60000, 1000), m -&gt; m.getName().startsWith("find"));
+ * </pre>
+ * @author m-szalik
+ */
+public final class CachingProxy implements InvocationHandler {
+    private static final Object EMPTY_KEY = new Object(); // methods without arguments and null argument
+    private final Object target;
+    private final Map<Method,Cache<Object,Object>> caches = new HashMap<>();
+
+    private CachingProxy(Class<?> type, Object target, Supplier<? extends Cache<Object,Object>> cacheFactory, Predicate<Method> memoized) {
+        this.target = target;
+        for(Method method : type.getMethods()) {
+            if (method.getReturnType() != void.class && memoized.test(method)) {
+                caches.put(method, cacheFactory.get());
+            }
+        }
+    }
+
+    /**
+     * @param type public interface to memoize
+     * @param target service implementing the interface
+     * @param cacheFactory creates a cache for each memoized method
+     * @param memoized selects methods to memoize, methods returning <code>void</code> are never memoized
+     * @param <T> interface type
+     * @return proxy of the service
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T create(Class<T> type, T target, Supplier<? extends Cache<Object,Object>> cacheFactory, Predicate<Method> memoized) {
+        if (type == null || ! type.isInterface()) {
+            throw new IllegalArgumentException("Type must be an interface.");
+        }
+        if (target == null) {
+            throw new IllegalArgumentException("Target cannot be null.");
+        }
+        if (cacheFactory == null) {
+            throw new IllegalArgumentException("Cache factory cannot be null.");
+        }
+        if (memoized == null) {
+            throw new IllegalArgumentException("Methods predicate cannot be null.");
+        }
+        CachingProxy handler = new CachingProxy(type, target, cacheFactory, memoized);
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    /**
+     * @param proxy proxy created by {@link #create(Class, Object, Supplier, Predicate)}
+     * @param method memoized method
+     * @return cache of the method or <code>null</code> if the method is not memoized
+     * @throws IllegalArgumentException if object is not a caching proxy
+     */
+    public static Cache<Object,Object> getCache(Object proxy, Method method) {
+        if (! Proxy.isProxyClass(proxy.getClass()) || ! (Proxy.getInvocationHandler(proxy) instanceof CachingProxy)) {
+            throw new IllegalArgumentException("Object is not a caching proxy.");
+        }
+        return ((CachingProxy) Proxy.getInvocationHandler(proxy)).caches.get(method);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Cache<Object,Object> cache = caches.get(method);
+        if (cache == null) {
+            if (method.getDeclaringClass() == Object.class && method.getName().equals("equals")) {
+                return proxy == args[0];
+            }
+            return call(method, args);
+        }
+        try {
+            return cache.fetch(key(args), () -> {
+                try {
+                    return call(method, args);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new CheckedFailure(e);
+                }
+            });
+        } catch (CheckedFailure e) {
+            throw e.getCause();
+        }
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Object key(Object[] args) {
+        if (args == null || args.length == 0) {
+            return EMPTY_KEY;
+        }
+        if (args.length == 1 && ! (args[0] != null && args[0].getClass().isArray())) {
+            return args[0] == null ? EMPTY_KEY : args[0];
+        }
+        return new ArgumentsKey(args); // proxy passes a new array on every call, it is not copied
+    }
+
+
+
+    private static final class ArgumentsKey {
+        private final Object[] args;
+        private final int hash;
+
+        private ArgumentsKey(Object[] args) {
+            this.args = args;
+            this.hash = Arrays.deepHashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ArgumentsKey && hash == ((ArgumentsKey) o).hash && Arrays.deepEquals(args, ((ArgumentsKey) o).args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.deepToString(args);
+        }
+    }
+
+    /**
+     * Carries a checked exception of the service through {@link Cache#fetch(Object, Supplier)}.
+     */
+    private static final class CheckedFailure extends RuntimeException {
+        private static final long serialVersionUID = -674704726867488463L;
+
+        private CheckedFailure(Throwable cause) {
+            super(null, cause, false, false);
+        }
+    }
+
+}
@@ -0,0 +1,435 @@
+package org.jsoftware.utils.cache;
+
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe cache based on lock striping.
+ * <p>Keys are spread over segments. Each segment keeps its own LRU order and evicts on its own,
+ * so writes lock only the segment of a key and reads do not lock at all - they record accesses in a buffer
+ * of the segment, applied to LRU order by next write.
+ * {@link #fetch(Object, Supplier)} runs the supplier holding a lock of a single entry only,
+ * concurrent fetches of the same key wait for that one supplier call.</p>
+ * <p>Capacity is split equally between segments, so a cache with poorly distributed keys may
+ * evict before it reaches <code>cacheSize</code> entries.</p>
+ * <p>Null keys are not supported.</p>
+ * @author m-szalik
+ */
+public class ConcurrentCache<K,V> implements Cache<K,V> {
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private final long timeoutMillis;
+    private final int segmentShift;
+    private final int segmentMask;
+    private final Segment<K,V>[] segments;
+    private final StatsCounter stats = new StatsCounter();
+
+    /**
+     * @param timeoutMillis cache ttl im milliseconds
+     * @param cacheSize cache size
+     */
+    public ConcurrentCache(long timeoutMillis, int cacheSize) {
+        this(timeoutMillis, cacheSize, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param timeoutMillis cache ttl im milliseconds
+     * @param cacheSize cache size
+     * @param concurrencyLevel expected number of concurrently writing threads
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ConcurrentCache(long timeoutMillis, int cacheSize, int concurrencyLevel) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Cache size must be greater then zero.");
+        }
+        if (concurrencyLevel < 1) {
+            throw new IllegalArgumentException("Concurrency level must be greater then zero.");
+        }
+        int bits = 0;
+        while ((1 << bits) < concurrencyLevel && (2 << bits) <= cacheSize) {
+            bits++;
+        }
+        int segmentsCount = 1 << bits;
+        this.timeoutMillis = timeoutMillis;
+        this.segmentShift = 32 - bits;
+        this.segmentMask = segmentsCount - 1;
+        this.segments = new Segment[segmentsCount];
+        for(int i=0; i<segmentsCount; i++) {
+            int capacity = cacheSize / segmentsCount + (i < cacheSize % segmentsCount ? 1 : 0);
+            segments[i] = new Segment<>(capacity, stats);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for(Segment<K,V> segment : segments) {
+            size += segment.map.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for(Segment<K,V> segment : segments) {
+            if (! segment.map.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return isValid(segmentFor(key).map.get(key));
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for(Segment<K,V> segment : segments) {
+            for(Node<K,V> node : segment.map.values()) {
+                V v = node.value;
+                if (isValid(node) && (value == null ? v == null : value.equals(v))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        Segment<K,V> segment = segmentFor(key);
+        Node<K,V> node = segment.map.get(key);
+        if (isValid(node)) {
+            stats.recordHits(1);
+            segment.recordRead(node);
+            return node.value;
+        }
+        stats.recordMisses(1);
+        return null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, value, entryTimeout());
+    }
+
+    @Override
+    public V put(K key, V value, long ttl, TimeUnit unit) {
+        return put(key, value, SimpleCache.deadline(now().toEpochMilli(), unit.toMillis(ttl)));
+    }
+
+    private V put(K key, V value, long timeout) {
+        Segment<K,V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            Node<K,V> node = segment.getOrCreate(key);
+            V old = isValid(node) ? node.value : null;
+            node.value = value;
+            node.timeout = timeout;
+            return old;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        Segment<K,V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            Node<K,V> node = segment.map.remove(key);
+            if (node == null) {
+                return null;
+            }
+            segment.unlink(node);
+            return isValid(node) ? node.value : null;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        m.forEach(this::put);
+    }
+
+    @Override
+    public void clear() {
+        for(Segment<K,V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> keys = new HashSet<>();
+        for(Segment<K,V> segment : segments) {
+            for(Node<K,V> node : segment.map.values()) {
+                if (isValid(node)) {
+                    keys.add(node.key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public Collection<V> values() {
+        List<V> values = new ArrayList<>();
+        for(Segment<K,V> segment : segments) {
+            for(Node<K,V> node : segment.map.values()) {
+                V v = node.value;
+                if (isValid(node)) {
+                    values.add(v);
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K,V>> entries = new HashSet<>();
+        for(Segment<K,V> segment : segments) {
+            for(Node<K,V> node : segment.map.values()) {
+                V v = node.value;
+                if (isValid(node)) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(node.key, v));
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public V fetch(K key, Supplier<V> supplier) {
+        Segment<K,V> segment = segmentFor(key);
+        Node<K,V> node = segment.map.get(key);
+        if (isValid(node)) {
+            stats.recordHits(1);
+            segment.recordRead(node);
+            return node.value;
+        }
+        stats.recordMisses(1);
+        while (true) {
+            segment.lock.lock();
+            try {
+                node = segment.getOrCreate(key);
+            } finally {
+                segment.lock.unlock();
+            }
+            synchronized (node) {
+                if (segment.map.get(key) != node) {
+                    continue; // placeholder removed by failed load of other thread
+                }
+                if (isValid(node)) {
+                    return node.value;
+                }
+                V staleValue = node.value;
+                long staleTimeout = node.timeout;
+                if (staleTimeout != Long.MIN_VALUE) {
+                    stats.recordExpiration();
+                }
+                long start = System.nanoTime();
+                V value;
+                try {
+                    value = supplier.get();
+                } catch (RuntimeException | Error e) {
+                    stats.recordLoadFailure(System.nanoTime() - start);
+                    segment.removePlaceholder(node);
+                    throw e;
+                }
+                stats.recordLoadSuccess(System.nanoTime() - start);
+                return segment.completeLoad(node, staleValue, staleTimeout, value, entryTimeout());
+            }
+        }
+    }
+
+    @Override
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    private Segment<K,V> segmentFor(Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null.");
+        }
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments[(h >>> segmentShift) & segmentMask];
+    }
+
+    private boolean isValid(Node<K,V> node) {
+        if (node == null) {
+            return false;
+        }
+        return node.timeout > now().toEpochMilli();
+    }
+
+    private long entryTimeout() {
+        return SimpleCache.deadline(now().toEpochMilli(), timeoutMillis);
+    }
+
+    protected Instant now() {
+        return Instant.now();
+    }
+
+
+
+    private static final class Segment<K,V> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ConcurrentHashMap<K,Node<K,V>> map = new ConcurrentHashMap<>();
+        private final ReadBuffer<Node<K,V>> reads = new ReadBuffer<>();
+        private final Node<K,V> head = new Node<>(null); // head.next - least recently used, head.prev - most recently used
+        private final int capacity;
+        private final StatsCounter stats;
+        private int count;
+
+        private Segment(int capacity, StatsCounter stats) {
+            this.capacity = capacity;
+            this.stats = stats;
+            head.next = head;
+            head.prev = head;
+        }
+
+        /**
+         * Record access of a read without taking segment's lock, unless stripe of the reader is full.
+         * Then the reader drains the buffer if the lock is free, otherwise the access is dropped.
+         */
+        private void recordRead(Node<K,V> node) {
+            if (reads.offer(node) || ! lock.tryLock()) {
+                return;
+            }
+            try {
+                drainReads();
+                recordAccess(node);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Must be called holding segment's lock. */
+        private void drainReads() {
+            reads.drain(this::recordAccess);
+        }
+
+        /**
+         * Move node to the end of LRU list, nodes removed since they were read are skipped.
+         * Must be called holding segment's lock.
+         */
+        private void recordAccess(Node<K,V> node) {
+            if (node.next != null && map.get(node.key) == node) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+
+        /**
+         * Store loaded value, unless a value was put to the node while it was loaded - the put value is kept then.
+         * @return value of the node
+         */
+        private V completeLoad(Node<K,V> node, V staleValue, long staleTimeout, V value, long timeout) {
+            lock.lock();
+            try {
+                if (node.value != staleValue || node.timeout != staleTimeout) {
+                    return node.value;
+                }
+                node.value = value;
+                node.timeout = timeout;
+                return value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Must be called holding segment's lock. */
+        private Node<K,V> getOrCreate(K key) {
+            drainReads();
+            Node<K,V> node = map.get(key);
+            if (node == null) {
+                node = new Node<>(key);
+                map.put(key, node);
+                linkLast(node);
+                while (count > capacity) {
+                    Node<K,V> eldest = head.next;
+                    unlink(eldest);
+                    map.remove(eldest.key, eldest);
+                    stats.recordEviction();
+                }
+            } else {
+                unlink(node);
+                linkLast(node);
+            }
+            return node;
+        }
+
+        /**
+         * Remove node created for a load that failed, unless a value was put to it in the meantime.
+         */
+        private void removePlaceholder(Node<K,V> node) {
+            lock.lock();
+            try {
+                if (node.timeout == Long.MIN_VALUE && map.remove(node.key, node)) {
+                    unlink(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void linkLast(Node<K,V> node) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            count++;
+        }
+
+        private void unlink(Node<K,V> node) {
+            if (node.next != null) {
+                node.prev.next = node.next;
+                node.next.prev = node.prev;
+                node.next = null;
+                node.prev = null;
+                count--;
+            }
+        }
+
+        private void clear() {
+            lock.lock();
+            try {
+                drainReads();
+                map.clear();
+                head.next = head;
+                head.prev = head;
+                count = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+
+
+    private static final class Node<K,V> {
+        private final K key;
+        private volatile V value;
+        private volatile long timeout = Long.MIN_VALUE;
+        private Node<K,V> prev, next; // guarded by segment's lock
+
+        private Node(K key) {
+            this.key = key;
+        }
+    }
+
+}
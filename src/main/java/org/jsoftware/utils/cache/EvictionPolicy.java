@@ -0,0 +1,83 @@
+package org.jsoftware.utils.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * Decides which entries are removed from a cache that exceeds its maximum weight.
+ * <p>Weight of an entry is 1, unless the cache uses a {@link Weigher}, so maximum weight is the maximum number of entries.</p>
+ * <p>A cache calls the policy holding its own lock, so implementations do not have to be thread-safe.
+ * An instance of a policy can be used by one cache only.</p>
+ * @param <K> key type
+ * @author m-szalik
+ */
+public interface EvictionPolicy<K> {
+
+    /**
+     * Entry of the key has been read or overwritten
+     * @param key cache key
+     */
+    void recordAccess(K key);
+
+    /**
+     * Entry of the key has been added to the cache
+     * @param key cache key
+     * @param weight weight of the entry
+     * @param evictor called with keys of entries that have to be removed from the cache (it may be the new key)
+     */
+    void recordInsert(K key, int weight, Consumer<? super K> evictor);
+
+    /**
+     * Weight of the key's entry has changed
+     * @param key cache key
+     * @param weight new weight of the entry
+     * @param evictor called with keys of entries that have to be removed from the cache (it may be the updated key)
+     */
+    void recordUpdate(K key, int weight, Consumer<? super K> evictor);
+
+    /**
+     * Entry of the key has been removed from the cache other way then by the policy's <code>evictor</code>
+     * @param key cache key
+     */
+    void recordRemoval(K key);
+
+    /**
+     * All entries have been removed from the cache
+     */
+    void clear();
+
+    /**
+     * @param maximumWeight maximum total weight of entries
+     * @param <K> key type
+     * @return policy evicting least recently used entries
+     */
+    static <K> EvictionPolicy<K> lru(long maximumWeight) {
+        return new LruPolicy<>(maximumWeight);
+    }
+
+    /**
+     * W-TinyLFU policy. New entries go to a small LRU window, entries leaving the window are admitted to the main
+     * segmented LRU space only if they are used more frequently then the entry they would evict.
+     * Frequencies are estimated by a count-min sketch. The policy is resistant to scans of keys used only once.
+     * <p>The sketch is sized by number of entries, it grows as entries are added.</p>
+     * @param maximumWeight maximum total weight of entries
+     * @param <K> key type
+     * @return W-TinyLFU policy
+     */
+    static <K> EvictionPolicy<K> windowTinyLfu(long maximumWeight) {
+        return new WindowTinyLfuPolicy<>(maximumWeight);
+    }
+
+    /**
+     * W-TinyLFU policy with the frequency sketch sized for expected number of entries,
+     * useful when maximum weight is not a number of entries but for instance bytes.
+     * @param maximumWeight maximum total weight of entries
+     * @param expectedEntries expected number of entries
+     * @param <K> key type
+     * @return W-TinyLFU policy
+     * @see #windowTinyLfu(long)
+     */
+    static <K> EvictionPolicy<K> windowTinyLfu(long maximumWeight, long expectedEntries) {
+        return new WindowTinyLfuPolicy<>(maximumWeight, expectedEntries);
+    }
+
+}
@@ -0,0 +1,44 @@
+package org.jsoftware.utils.cache;
+
+/**
+ * Calculates time to live of each cache entry, for instance from max-age of a response.
+ * <p>Durations are in milliseconds, {@link Long#MAX_VALUE} means an entry never expires.</p>
+ * @param <K> key type
+ * @param <V> value type
+ * @author m-szalik
+ * @see SimpleCache.Builder#expireAfter(Expiry)
+ */
+@FunctionalInterface
+public interface Expiry<K,V> {
+
+    /**
+     * @param key cache key
+     * @param value new value
+     * @param currentTimeMillis current time
+     * @return ttl of a new entry in milliseconds
+     */
+    long expireAfterCreate(K key, V value, long currentTimeMillis);
+
+    /**
+     * @param key cache key
+     * @param value new value
+     * @param currentTimeMillis current time
+     * @param currentDurationMillis remaining ttl of the entry
+     * @return ttl of the entry after its value was replaced, by default the same as of a new entry
+     */
+    default long expireAfterUpdate(K key, V value, long currentTimeMillis, long currentDurationMillis) {
+        return expireAfterCreate(key, value, currentTimeMillis);
+    }
+
+    /**
+     * @param key cache key
+     * @param value value read
+     * @param currentTimeMillis current time
+     * @param currentDurationMillis remaining ttl of the entry
+     * @return ttl of the entry after it was read, by default <code>currentDurationMillis</code>
+     */
+    default long expireAfterRead(K key, V value, long currentTimeMillis, long currentDurationMillis) {
+        return currentDurationMillis;
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.jsoftware.utils.cache;
+
+/**
+ * Count-min sketch estimating how often keys are used.
+ * <p>Counters have 4 bits and are packed 16 in a <code>long</code>, each key has 4 counters in one table's element.
+ * When number of increments reaches 10 times the table size all counters are halved, so the sketch forgets old history.</p>
+ * <p>This class is not thread-safe.</p>
+ * @author m-szalik
+ */
+final class FrequencySketch {
+    private static final long[] SEED = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    /**
+     * @param maximumSize expected number of distinct keys
+     */
+    FrequencySketch(long maximumSize) {
+        this.table = new long[tableLength(maximumSize)];
+        this.tableMask = table.length - 1;
+        this.sampleSize = 10 * table.length;
+    }
+
+    /**
+     * Enlarge the table if it is too small for the number of keys, frequencies counted so far are forgotten then.
+     * @param maximumSize expected number of distinct keys
+     */
+    void ensureCapacity(long maximumSize) {
+        if (maximumSize <= table.length || table.length >= MAXIMUM_CAPACITY) {
+            return;
+        }
+        this.table = new long[tableLength(maximumSize)];
+        this.tableMask = table.length - 1;
+        this.sampleSize = 10 * table.length;
+        this.size = 0;
+    }
+
+    private static int tableLength(long maximumSize) {
+        int capacity = (int) Math.max(1, Math.min(maximumSize, MAXIMUM_CAPACITY));
+        return capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    /**
+     * @param key a key
+     * @return estimated frequency of the key, from 0 to 15
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for(int i=0; i<4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Increment frequency of the key, unless it reached its maximum
+     * @param key a key
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for(int i=0; i<4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        int odd = 0;
+        for(int i=0; i<table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEED[i]) * SEED[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
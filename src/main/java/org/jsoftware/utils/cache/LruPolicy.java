@@ -0,0 +1,66 @@
+package org.jsoftware.utils.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Least recently used entries eviction
+ * @author m-szalik
+ */
+final class LruPolicy<K> implements EvictionPolicy<K> {
+    private final long maximumWeight;
+    private final LinkedHashMap<K,Integer> weights;
+    private long totalWeight;
+
+    LruPolicy(long maximumWeight) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be greater then zero.");
+        }
+        this.maximumWeight = maximumWeight;
+        this.weights = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        weights.get(key);
+    }
+
+    @Override
+    public void recordInsert(K key, int weight, Consumer<? super K> evictor) {
+        recordUpdate(key, weight, evictor);
+    }
+
+    @Override
+    public void recordUpdate(K key, int weight, Consumer<? super K> evictor) {
+        if (weight > maximumWeight) { // would flush the whole cache
+            recordRemoval(key);
+            evictor.accept(key);
+            return;
+        }
+        Integer old = weights.put(key, weight);
+        totalWeight += weight - (old == null ? 0 : old);
+        Iterator<Map.Entry<K,Integer>> it = weights.entrySet().iterator();
+        while (totalWeight > maximumWeight) {
+            Map.Entry<K,Integer> eldest = it.next();
+            it.remove();
+            totalWeight -= eldest.getValue();
+            evictor.accept(eldest.getKey());
+        }
+    }
+
+    @Override
+    public void recordRemoval(K key) {
+        Integer weight = weights.remove(key);
+        if (weight != null) {
+            totalWeight -= weight;
+        }
+    }
+
+    @Override
+    public void clear() {
+        weights.clear();
+        totalWeight = 0;
+    }
+}
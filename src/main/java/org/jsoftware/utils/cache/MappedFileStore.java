@@ -0,0 +1,181 @@
+package org.jsoftware.utils.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Store of serialized values in a memory-mapped file.
+ * <p>Values are appended to the file, their positions are kept in an index on heap. Replaced and removed values
+ * leave garbage that is compacted when the file is full, if it is still full the oldest values are dropped.</p>
+ * <p>Content of the file is not reused after it is reopened.</p>
+ * @param <K> key type
+ * @author m-szalik
+ */
+final class MappedFileStore<K> implements Closeable {
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final LinkedHashMap<K,Location> index = new LinkedHashMap<>(); // in order of positions
+    private int position;
+
+    /**
+     * @param file file to store values in, its content is removed
+     * @param capacity maximum size of the file in bytes
+     * @throws IOException if file cannot be opened or mapped
+     */
+    MappedFileStore(Path file, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater then zero.");
+        }
+        this.capacity = capacity;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * @param key key
+     * @param data serialized value
+     * @param timeout expiration time of the value
+     * @param now current time, expired values are dropped by compaction
+     * @return <code>false</code> if value is larger then the store
+     */
+    synchronized boolean write(K key, byte[] data, long timeout, long now) {
+        remove(key);
+        if (data.length > capacity) {
+            return false;
+        }
+        if (position + data.length > capacity) {
+            compact(now);
+            Iterator<Location> it = index.values().iterator();
+            int live = position;
+            while (live + data.length > capacity) {
+                live -= it.next().length;
+                it.remove();
+            }
+            if (live != position) {
+                compact(now);
+            }
+        }
+        buffer.clear();
+        buffer.position(position);
+        buffer.put(data);
+        index.put(key, new Location(position, data.length, timeout));
+        position += data.length;
+        return true;
+    }
+
+    /**
+     * Remove value from the store.
+     * @return removed value or <code>null</code> if there is no valid value of the key
+     */
+    synchronized Record take(Object key, long now) {
+        Location location = index.remove(key);
+        if (location == null || location.timeout <= now) {
+            return null;
+        }
+        return new Record(read(location), location.timeout);
+    }
+
+    synchronized boolean containsKey(Object key, long now) {
+        Location location = index.get(key);
+        return location != null && location.timeout > now;
+    }
+
+    synchronized void remove(Object key) {
+        index.remove(key);
+    }
+
+    /**
+     * @param consumer called for each valid value
+     */
+    synchronized void forEach(long now, BiConsumer<K,Record> consumer) {
+        for(Map.Entry<K,Location> e : index.entrySet()) {
+            Location location = e.getValue();
+            if (location.timeout > now) {
+                consumer.accept(e.getKey(), new Record(read(location), location.timeout));
+            }
+        }
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    synchronized void clear() {
+        index.clear();
+        position = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.clear();
+        channel.close();
+    }
+
+    /**
+     * Move valid values to the beginning of the file, values keep their order.
+     */
+    private void compact(long now) {
+        int target = 0;
+        Iterator<Location> it = index.values().iterator();
+        while (it.hasNext()) {
+            Location location = it.next();
+            if (location.timeout <= now) {
+                it.remove();
+                continue;
+            }
+            if (location.position != target) {
+                byte[] data = read(location);
+                buffer.clear();
+                buffer.position(target);
+                buffer.put(data);
+                location.position = target;
+            }
+            target += location.length;
+        }
+        position = target;
+    }
+
+    private byte[] read(Location location) {
+        byte[] data = new byte[location.length];
+        buffer.clear();
+        buffer.position(location.position);
+        buffer.get(data);
+        return data;
+    }
+
+
+
+    static final class Record {
+        final byte[] data;
+        final long timeout;
+
+        private Record(byte[] data, long timeout) {
+            this.data = data;
+            this.timeout = timeout;
+        }
+    }
+
+
+
+    private static final class Location {
+        private int position;
+        private final int length;
+        private final long timeout;
+
+        private Location(int position, int length, long timeout) {
+            this.position = position;
+            this.length = length;
+            this.timeout = timeout;
+        }
+    }
+
+}
@@ -0,0 +1,518 @@
+package org.jsoftware.utils.cache;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Cache keeping serialized values in direct {@link ByteBuffer}s, outside of java heap.
+ * <p>Memory is allocated in slabs divided into chunks of power of two sizes, a value takes the smallest chunk it fits in.
+ * Each chunk size has its own LRU list, so when memory is full the least recently used value of the same chunk size is evicted.
+ * Slabs once assigned to a chunk size are not reassigned, values larger then a slab are not cached.</p>
+ * <p>Only keys and a small index entry per key stay on heap, values are deserialized on every read.
+ * Each chunk size has its own lock, so reads and writes of values of different sizes do not contend,
+ * and values are (de)serialized outside of any lock.
+ * {@link #fetch(Object, Supplier)} calls the supplier once for concurrent fetches of the same key, <code>null</code> values are not cached.</p>
+ * @author m-szalik
+ * @see Serializer
+ */
+public class OffHeapCache<K,V> implements Cache<K,V> {
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+    private final long timeoutMillis;
+    private final Serializer<V> serializer;
+    private final int slabSize;
+    private final ByteBuffer[] slabs; // assigned holding slabs, content used holding lock of the size class it is assigned to
+    private final SizeClass<K>[] sizeClasses;
+    private final Map<K,Slot<K>> index = new ConcurrentHashMap<>(); // slots are put holding lock of their size class
+    private final Map<K,Object> loadLocks = new ConcurrentHashMap<>();
+    private final StatsCounter stats = new StatsCounter();
+    private int slabsCount; // guarded by slabs
+
+    /**
+     * @param timeoutMillis cache ttl im milliseconds
+     * @param maximumMemory maximum off-heap memory used by values in bytes
+     * @param serializer values serializer
+     */
+    public OffHeapCache(long timeoutMillis, long maximumMemory, Serializer<V> serializer) {
+        this(timeoutMillis, maximumMemory, DEFAULT_SLAB_SIZE, serializer);
+    }
+
+    /**
+     * @param timeoutMillis cache ttl im milliseconds
+     * @param maximumMemory maximum off-heap memory used by values in bytes
+     * @param slabSize size of a memory block allocated at once, power of two, it is also maximum size of a value
+     * @param serializer values serializer
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public OffHeapCache(long timeoutMillis, long maximumMemory, int slabSize, Serializer<V> serializer) {
+        if (slabSize < MIN_CHUNK_SIZE || Integer.bitCount(slabSize) != 1) {
+            throw new IllegalArgumentException("Slab size must be a power of two not less then " + MIN_CHUNK_SIZE + ".");
+        }
+        if (maximumMemory < slabSize) {
+            throw new IllegalArgumentException("Maximum memory must not be less then slab size.");
+        }
+        if (serializer == null) {
+            throw new IllegalArgumentException("Serializer cannot be null.");
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.serializer = serializer;
+        this.slabSize = slabSize;
+        this.slabs = new ByteBuffer[(int) Math.min(Integer.MAX_VALUE, maximumMemory / slabSize)];
+        int classes = Integer.numberOfTrailingZeros(slabSize) - Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE) + 1;
+        this.sizeClasses = new SizeClass[classes];
+        for(int i=0; i<classes; i++) {
+            sizeClasses[i] = new SizeClass<>(MIN_CHUNK_SIZE << i);
+        }
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return isValid(index.get(checkKey(key)));
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return values().contains(value);
+    }
+
+    @Override
+    public V get(Object key) {
+        byte[] data = read(key);
+        if (data == null) {
+            stats.recordMisses(1);
+            return null;
+        }
+        stats.recordHits(1);
+        return serializer.deserialize(data);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, value, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public V put(K key, V value, long ttl, TimeUnit unit) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null.");
+        }
+        byte[] old = write(key, serializer.serialize(value), SimpleCache.deadline(now().toEpochMilli(), unit.toMillis(ttl)));
+        return old == null ? null : serializer.deserialize(old);
+    }
+
+    @Override
+    public V remove(Object key) {
+        Slot<K> slot = index.remove(checkKey(key));
+        byte[] old = slot == null ? null : retire(slot);
+        return old == null ? null : serializer.deserialize(old);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        m.forEach(this::put);
+    }
+
+    @Override
+    public void clear() {
+        for(SizeClass<K> sc : sizeClasses) {
+            sc.lock.lock();
+        }
+        try {
+            synchronized (slabs) {
+                index.clear();
+                for(SizeClass<K> sc : sizeClasses) {
+                    sc.reset();
+                }
+                slabsCount = 0; // slabs are kept and reused
+            }
+        } finally {
+            for(SizeClass<K> sc : sizeClasses) {
+                sc.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove expired entries, it scans whole cache.
+     */
+    public void cleanUp() {
+        for(Slot<K> slot : index.values()) {
+            if (! isValid(slot)) {
+                SizeClass<K> sc = sizeClasses[slot.sizeClass];
+                sc.lock.lock();
+                try {
+                    expire(slot);
+                } finally {
+                    sc.lock.unlock();
+                }
+            }
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> keys = new HashSet<>();
+        for(Slot<K> slot : index.values()) {
+            if (isValid(slot)) {
+                keys.add(slot.key);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public Collection<V> values() {
+        List<V> values = new ArrayList<>();
+        for(Slot<K> slot : index.values()) {
+            byte[] data = copyValid(slot);
+            if (data != null) {
+                values.add(serializer.deserialize(data));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K,V>> entries = new HashSet<>();
+        for(Slot<K> slot : index.values()) {
+            byte[] data = copyValid(slot);
+            if (data != null) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(slot.key, serializer.deserialize(data)));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public V fetch(K key, Supplier<V> supplier) {
+        byte[] data = read(key);
+        if (data != null) {
+            stats.recordHits(1);
+            return serializer.deserialize(data);
+        }
+        stats.recordMisses(1);
+        Object lock = loadLocks.computeIfAbsent(key, k -> new Object());
+        try {
+            synchronized (lock) {
+                data = read(key);
+                if (data != null) { // loaded by other thread in the meantime
+                    return serializer.deserialize(data);
+                }
+                long start = System.nanoTime();
+                V value;
+                try {
+                    value = supplier.get();
+                } catch (RuntimeException | Error e) {
+                    stats.recordLoadFailure(System.nanoTime() - start);
+                    throw e;
+                }
+                stats.recordLoadSuccess(System.nanoTime() - start);
+                if (value != null) {
+                    write(key, serializer.serialize(value), SimpleCache.deadline(now().toEpochMilli(), timeoutMillis));
+                }
+                return value;
+            }
+        } finally {
+            loadLocks.remove(key, lock);
+        }
+    }
+
+    @Override
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * @return copy of value's bytes or <code>null</code> if there is no valid entry of the key
+     */
+    private byte[] read(Object key) {
+        Slot<K> slot = index.get(checkKey(key));
+        if (slot == null) {
+            return null;
+        }
+        SizeClass<K> sc = sizeClasses[slot.sizeClass];
+        sc.lock.lock();
+        try {
+            if (! slot.isLinked()) {
+                return null; // evicted or replaced in the meantime
+            }
+            if (! isValid(slot)) {
+                expire(slot);
+                return null;
+            }
+            sc.unlink(slot);
+            sc.linkLast(slot);
+            return copy(slot);
+        } finally {
+            sc.lock.unlock();
+        }
+    }
+
+    /**
+     * @return copy of previous valid value's bytes
+     */
+    private byte[] write(K key, byte[] data, long timeout) {
+        checkKey(key);
+        int sizeClass = sizeClassOf(data.length);
+        if (sizeClass < 0) {
+            Slot<K> old = index.remove(key); // too large to be cached
+            return old == null ? null : retire(old);
+        }
+        SizeClass<K> sc = sizeClasses[sizeClass];
+        Slot<K> old;
+        Slot<K> reused = null;
+        byte[] oldData = null;
+        sc.lock.lock();
+        try {
+            Slot<K> current = index.get(key);
+            if (current != null && current.sizeClass == sizeClass && current.isLinked()) { // its chunk can be taken without eviction
+                oldData = isValid(current) ? copy(current) : null;
+                release(current);
+                reused = current;
+            }
+            long address = allocate(sc);
+            if (address < 0) {
+                old = index.remove(key); // all memory taken by other chunk sizes
+            } else {
+                ByteBuffer slab = slabs[(int) (address >>> 32)];
+                slab.clear();
+                slab.position((int) address);
+                slab.put(data);
+                Slot<K> slot = new Slot<>(key, address, data.length, sizeClass, timeout);
+                sc.linkLast(slot);
+                old = index.put(key, slot);
+            }
+        } finally {
+            sc.lock.unlock();
+        }
+        if (old != null && old != reused) {
+            oldData = retire(old);
+        }
+        return oldData;
+    }
+
+    /**
+     * Free chunk of a slot removed from the index, unless it has been evicted already.
+     * @return copy of slot's bytes if it was valid
+     */
+    private byte[] retire(Slot<K> slot) {
+        SizeClass<K> sc = sizeClasses[slot.sizeClass];
+        sc.lock.lock();
+        try {
+            if (! slot.isLinked()) {
+                return null;
+            }
+            byte[] data = isValid(slot) ? copy(slot) : null;
+            release(slot);
+            return data;
+        } finally {
+            sc.lock.unlock();
+        }
+    }
+
+    /**
+     * @return copy of slot's bytes or <code>null</code> if it is expired or has been removed
+     */
+    private byte[] copyValid(Slot<K> slot) {
+        SizeClass<K> sc = sizeClasses[slot.sizeClass];
+        sc.lock.lock();
+        try {
+            return slot.isLinked() && isValid(slot) ? copy(slot) : null;
+        } finally {
+            sc.lock.unlock();
+        }
+    }
+
+    /** Must be called holding lock of slot's size class. */
+    private void expire(Slot<K> slot) {
+        if (slot.isLinked()) {
+            release(slot);
+            index.remove(slot.key, slot);
+            stats.recordExpiration();
+        }
+    }
+
+    /** Must be called holding lock of slot's size class. */
+    private byte[] copy(Slot<K> slot) {
+        ByteBuffer slab = slabs[(int) (slot.address >>> 32)];
+        byte[] data = new byte[slot.length];
+        slab.clear();
+        slab.position((int) slot.address);
+        slab.get(data);
+        return data;
+    }
+
+    /**
+     * Must be called holding lock of the size class.
+     * @return address of a free chunk or -1
+     */
+    private long allocate(SizeClass<K> sc) {
+        if (sc.freeCount == 0) {
+            int slab = newSlab();
+            for(int offset = slabSize - sc.chunkSize; slab >= 0 && offset >= 0; offset -= sc.chunkSize) {
+                sc.free((long) slab << 32 | offset);
+            }
+        }
+        if (sc.freeCount == 0) {
+            Slot<K> eldest = sc.head.next;
+            if (eldest == sc.head) {
+                return -1;
+            }
+            release(eldest);
+            index.remove(eldest.key, eldest);
+            if (isValid(eldest)) {
+                stats.recordEviction();
+            } else {
+                stats.recordExpiration();
+            }
+        }
+        return sc.free[--sc.freeCount];
+    }
+
+    /**
+     * @return index of a slab assigned to the calling size class or -1 if all slabs are assigned
+     */
+    private int newSlab() {
+        synchronized (slabs) {
+            if (slabsCount == slabs.length) {
+                return -1;
+            }
+            if (slabs[slabsCount] == null) {
+                slabs[slabsCount] = ByteBuffer.allocateDirect(slabSize);
+            }
+            return slabsCount++;
+        }
+    }
+
+    /** Must be called holding lock of slot's size class. */
+    private void release(Slot<K> slot) {
+        SizeClass<K> sizeClass = sizeClasses[slot.sizeClass];
+        sizeClass.unlink(slot);
+        sizeClass.free(slot.address);
+    }
+
+    private static Object checkKey(Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null.");
+        }
+        return key;
+    }
+
+    private int sizeClassOf(int length) {
+        if (length > slabSize) {
+            return -1;
+        }
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, Integer.highestOneBit(Math.max(1, length - 1)) << 1);
+        return Integer.numberOfTrailingZeros(chunkSize) - Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE);
+    }
+
+    private boolean isValid(Slot<K> slot) {
+        return slot != null && slot.timeout > now().toEpochMilli();
+    }
+
+    protected Instant now() {
+        return Instant.now();
+    }
+
+
+
+    private static final class SizeClass<K> {
+        private final ReentrantLock lock = new ReentrantLock(); // guards lists and chunks of the size class
+        private final int chunkSize;
+        private final Slot<K> head = new Slot<>(null, 0, 0, 0, 0); // head.next - least recently used
+        private long[] free = new long[16];
+        private int freeCount;
+
+        private SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+            head.next = head;
+            head.prev = head;
+        }
+
+        private void free(long address) {
+            if (freeCount == free.length) {
+                long[] f = new long[free.length * 2];
+                System.arraycopy(free, 0, f, 0, freeCount);
+                free = f;
+            }
+            free[freeCount++] = address;
+        }
+
+        /**
+         * Unlink all slots and forget free chunks, slabs of the size class are assigned again.
+         */
+        private void reset() {
+            for(Slot<K> slot = head.next; slot != head; ) {
+                Slot<K> next = slot.next;
+                slot.next = null;
+                slot.prev = null;
+                slot = next;
+            }
+            head.next = head;
+            head.prev = head;
+            freeCount = 0;
+        }
+
+        private void linkLast(Slot<K> slot) {
+            slot.prev = head.prev;
+            slot.next = head;
+            head.prev.next = slot;
+            head.prev = slot;
+        }
+
+        private void unlink(Slot<K> slot) {
+            if (slot.next != null) {
+                slot.prev.next = slot.next;
+                slot.next.prev = slot.prev;
+                slot.next = null;
+                slot.prev = null;
+            }
+        }
+    }
+
+
+
+    private static final class Slot<K> {
+        private final K key;
+        private final long address; // slab index << 32 | offset in the slab
+        private final int length;
+        private final int sizeClass;
+        private final long timeout;
+        private Slot<K> prev, next; // guarded by lock of the size class, unlinked once the chunk is released
+
+        private Slot(K key, long address, int length, int sizeClass, long timeout) {
+            this.key = key;
+            this.address = address;
+            this.length = length;
+            this.sizeClass = sizeClass;
+            this.timeout = timeout;
+        }
+
+        private boolean isLinked() {
+            return next != null;
+        }
+    }
+
+}
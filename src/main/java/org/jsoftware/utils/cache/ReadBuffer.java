@@ -0,0 +1,83 @@
+package org.jsoftware.utils.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lossy buffer of reads, so readers record accesses without taking the cache lock.
+ * <p>Readers are spread over stripes by their thread, each stripe is a ring of {@link #STRIPE_SIZE} elements.
+ * An element offered to a full stripe, or to a stripe other thread is writing to, is dropped -
+ * eviction order is approximate then. Elements are drained by one thread at a time, holding the cache lock.</p>
+ * @param <E> element type
+ * @author m-szalik
+ */
+final class ReadBuffer<E> {
+    static final int STRIPE_SIZE = 16;
+    private static final int MASK = STRIPE_SIZE - 1;
+    private final Stripe<E>[] stripes;
+    private final int stripesMask;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ReadBuffer() {
+        int count = Integer.highestOneBit(Math.min(64, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        this.stripes = new Stripe[count];
+        for(int i=0; i<count; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        this.stripesMask = count - 1;
+    }
+
+    /**
+     * @param element element to record, it is dropped if stripe of current thread is full or other thread writes to it
+     * @return <code>false</code> if stripe of current thread is full, so the buffer should be drained
+     */
+    boolean offer(E element) {
+        Stripe<E> stripe = stripes[probe() & stripesMask];
+        long tail = stripe.writeCounter.get();
+        if (tail - stripe.readCounter >= STRIPE_SIZE) {
+            return false;
+        }
+        if (stripe.writeCounter.compareAndSet(tail, tail + 1)) {
+            stripe.buffer.lazySet((int) tail & MASK, element);
+        }
+        return true;
+    }
+
+    /**
+     * Pass recorded elements to the consumer, it must not be called concurrently.
+     * @param consumer consumer of elements
+     */
+    void drain(Consumer<? super E> consumer) {
+        for(Stripe<E> stripe : stripes) {
+            long head = stripe.readCounter;
+            long tail = stripe.writeCounter.get();
+            while (head < tail) {
+                int index = (int) head & MASK;
+                E element = stripe.buffer.get(index);
+                if (element == null) {
+                    break; // slot taken, but element not written yet
+                }
+                stripe.buffer.lazySet(index, null);
+                consumer.accept(element);
+                head++;
+            }
+            stripe.readCounter = head;
+        }
+    }
+
+    private static int probe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+
+    private static final class Stripe<E> {
+        private final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>(STRIPE_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter; // written only by draining thread
+    }
+
+}
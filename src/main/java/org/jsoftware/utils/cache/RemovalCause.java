@@ -0,0 +1,26 @@
+package org.jsoftware.utils.cache;
+
+/**
+ * Reason of removing an entry from a cache
+ * @author m-szalik
+ * @see RemovalListener
+ */
+public enum RemovalCause {
+    /** Entry removed by the user. */
+    EXPLICIT,
+    /** Value replaced by a new one. */
+    REPLACED,
+    /** Entry expired. */
+    EXPIRED,
+    /** Entry evicted because the cache exceeded its size. */
+    SIZE,
+    /** Value held by soft or weak reference collected by garbage collector. */
+    COLLECTED;
+
+    /**
+     * @return <code>true</code> if the entry was removed by the cache itself
+     */
+    public boolean wasEvicted() {
+        return this != EXPLICIT && this != REPLACED;
+    }
+}
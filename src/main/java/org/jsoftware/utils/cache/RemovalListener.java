@@ -0,0 +1,22 @@
+package org.jsoftware.utils.cache;
+
+/**
+ * Notified about entries removed from a cache, for instance to release resources held by their values.
+ * <p>{@link SimpleCache} delivers notifications asynchronously in batches, never holding cache's lock,
+ * exceptions thrown by a listener are ignored there.</p>
+ * @param <K> key type
+ * @param <V> value type
+ * @author m-szalik
+ * @see SimpleCache.Builder#removalListener(RemovalListener)
+ */
+@FunctionalInterface
+public interface RemovalListener<K,V> {
+
+    /**
+     * @param key key of removed entry
+     * @param value value of removed entry, <code>null</code> if it was collected by garbage collector
+     * @param cause reason of removal
+     */
+    void onRemoval(K key, V value, RemovalCause cause);
+
+}
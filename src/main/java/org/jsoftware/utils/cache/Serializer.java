@@ -0,0 +1,59 @@
+package org.jsoftware.utils.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Converts cache values to bytes and back, used by caches that keep values outside of java heap.
+ * @param <V> value type
+ * @author m-szalik
+ * @see OffHeapCache
+ */
+public interface Serializer<V> {
+
+    /**
+     * @param value value to serialize, never <code>null</code>
+     * @return serialized value
+     */
+    byte[] serialize(V value);
+
+    /**
+     * @param data bytes returned by {@link #serialize(Object)}
+     * @return deserialized value
+     */
+    V deserialize(byte[] data);
+
+    /**
+     * @param <V> value type
+     * @return serializer based on java serialization
+     */
+    static <V extends Serializable> Serializer<V> javaSerializer() {
+        return new Serializer<V>() {
+            @Override
+            public byte[] serialize(V value) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+                    oos.writeObject(value);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to serialize " + value, e);
+                }
+                return out.toByteArray();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V deserialize(byte[] data) {
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                    return (V) ois.readObject();
+                } catch (IOException | ClassNotFoundException e) {
+                    throw new IllegalStateException("Unable to deserialize value.", e);
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,113 @@
+package org.jsoftware.utils.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous variant of {@link SimpleCache}.
+ * <p>Entries are futures, so a value being loaded is already in the cache and concurrent fetches of
+ * its key get the same future. Futures completed exceptionally are removed from the cache,
+ * loads rejected by the executor complete the future with {@link RejectedExecutionException}.
+ * Entry ttl is counted from the moment its loading starts.</p>
+ * @author m-szalik
+ */
+public class SimpleAsyncCache<K,V> implements AsyncCache<K,V> {
+    private final SimpleCache<K,CompletableFuture<V>> cache;
+    private final Executor executor;
+
+    /**
+     * Cache loading values in {@link ForkJoinPool#commonPool()}
+     * @param timeoutMillis cache ttl im milliseconds
+     * @param cacheSize cache size
+     */
+    public SimpleAsyncCache(long timeoutMillis, int cacheSize) {
+        this(timeoutMillis, cacheSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param timeoutMillis cache ttl im milliseconds
+     * @param cacheSize cache size
+     * @param executor executor loaders are called in
+     */
+    public SimpleAsyncCache(long timeoutMillis, int cacheSize, Executor executor) {
+        this(new SimpleCache<>(timeoutMillis, cacheSize), executor);
+    }
+
+    SimpleAsyncCache(SimpleCache<K,CompletableFuture<V>> cache, Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null.");
+        }
+        this.cache = cache;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<V> fetchAsync(K key, Function<? super K, ? extends CompletionStage<V>> loader) {
+        CompletableFuture<V> promise = new CompletableFuture<>();
+        CompletableFuture<V> future = cache.fetch(key, () -> promise);
+        if (future == promise) {
+            removeOnFailure(key, promise);
+            try {
+                executor.execute(() -> {
+                    try {
+                        loader.apply(key).whenComplete((v, e) -> {
+                            if (e == null) {
+                                promise.complete(v);
+                            } else {
+                                promise.completeExceptionally(e);
+                            }
+                        });
+                    } catch (Throwable e) {
+                        promise.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                promise.completeExceptionally(e); // removed from the cache, so next fetch tries again
+            }
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<V> fetchAsync(K key, Supplier<V> supplier) {
+        return fetchAsync(key, k -> CompletableFuture.completedFuture(supplier.get()));
+    }
+
+    @Override
+    public CompletableFuture<V> getIfPresent(K key) {
+        return cache.get(key);
+    }
+
+    @Override
+    public void put(K key, CompletableFuture<V> value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null.");
+        }
+        cache.put(key, value);
+        removeOnFailure(key, value);
+    }
+
+    @Override
+    public void invalidate(K key) {
+        cache.remove(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    private void removeOnFailure(K key, CompletableFuture<V> future) {
+        future.whenComplete((v, e) -> {
+            if (e != null) {
+                cache.remove(key, future);
+            }
+        });
+    }
+
+}
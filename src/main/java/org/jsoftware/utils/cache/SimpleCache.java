@@ -1,34 +1,151 @@
 package org.jsoftware.utils.cache;
 
+import org.jsoftware.utils.internal.RemovalDispatcher;
 
-import org.jsoftware.utils.collection.LRUMap;
-
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.time.Clock;
 import java.time.Instant;
-import java.util.AbstractMap;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 /**
- * Simple cache based on LinkedHashMap
+ * Simple cache based on ConcurrentHashMap
+ * <p>Concurrent fetches of the same key are coalesced - only one thread calls the supplier,
+ * others wait for its result.</p>
+ * <p>With refresh enabled an entry older then refresh time is still returned by {@link #fetch(Object, Supplier)}
+ * while its new value is being loaded in background.</p>
+ * <p>When the cache is full entries are evicted according to {@link EvictionPolicy}, LRU by default.
+ * Cache can be limited by number of entries or by their total weight calculated by a {@link Weigher}.</p>
+ * <p>Reads do not wait for the cache lock. Their accesses are buffered and applied to eviction order by next write,
+ * or by a reader finding the buffer full and the lock free. Otherwise accesses are dropped,
+ * so under heavy reads eviction order is approximate.</p>
+ * <p>Values can be held by soft or weak references, so they are removed from the cache when garbage collector needs memory.</p>
+ * <p>Ttl is the same for all entries or calculated for each of them by {@link Expiry}.
+ * With expire after access it is time to idle - each read extends the ttl.</p>
+ * <p>Expired entries are removed when {@link #cleanUp()} is called. With expiry sweeper enabled it is done in background,
+ * so expired entries do not take place of valid ones.</p>
+ * <p>{@link #compute(Object, BiFunction)}, {@link #computeIfAbsent(Object, Function)}, {@link #computeIfPresent(Object, BiFunction)}
+ * and {@link #merge(Object, Object, BiFunction)} are atomic, they hold only the lock of the computed entry.
+ * Expired entries are treated as absent.</p>
+ * <p>Entries can be tagged, all entries of a tag are removed by {@link #invalidateByTag(String)}
+ * in time proportional to their number.</p>
+ * <p>Values put and keys removed can be written to a backing store by a {@link CacheWriter},
+ * synchronously or in background by {@link WriteBehindWriter}.</p>
+ * <p>Removed, expired and replaced values can be passed to a {@link RemovalListener}, notifications are delivered
+ * in batches by an executor after the cache lock is released.</p>
+ * <p>{@link #keySet()}, {@link #values()} and {@link #entrySet()} are live, weakly consistent views skipping invalid entries,
+ * they never throw {@link java.util.ConcurrentModificationException}. Null keys are not supported.</p>
  * @author m-szalik
+ * @see #builder()
  */
 public class SimpleCache<K,V> implements Cache<K,V> {
     private final long timeoutMillis;
-    private final LRUMap<K,CacheEntry<V>> cacheMap;
+    private final long accessMillis; // -1 unless expires after access
+    private final Expiry<? super K, ? super V> expiry;
+    private final long refreshMillis;
+    private final long loadWaitTimeoutMillis;
+    private final Executor refreshExecutor;
+    private final Clock clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentHashMap<K,CacheEntry<K,V>> cacheMap; // modified holding lock
+    private final EvictionPolicy<K> evictionPolicy; // guarded by lock, null if entries are evicted by lruHead list
+    private final CacheEntry<K,V> lruHead; // sentinel of entries in LRU order, guarded by lock
+    private long maximumWeight; // guarded by lock
+    private long totalWeight; // guarded by lock
+    private final Weigher<? super K, ? super V> weigher;
+    private final TimerWheel<K,CacheEntry<K,V>> timerWheel; // guarded by lock
+    private final ReadBuffer<CacheEntry<K,V>> readBuffer = new ReadBuffer<>(); // drained holding lock
+    private final Map<String,Set<K>> tagIndex = new HashMap<>(); // guarded by lock
+    private final ReferenceStrength valueStrength;
+    private final ReferenceQueue<V> collectedValues = new ReferenceQueue<>();
+    private final RemovalDispatcher<K,V,RemovalCause> removals; // null without a listener
+    private final CacheWriter<K,V> writer;
+    private final BatchingLoader<K,V> batchLoader; // null when suppliers load values
+    private final StatsCounter stats = new StatsCounter();
+    private final Set<K> keySet = new KeySetView();
+    private final Collection<V> values = new ValuesView();
+    private final Set<Entry<K,V>> entrySet = new EntrySetView();
 
     /**
      * @param timeoutMillis cache ttl im milliseconds
      * @param cacheSize cache size
      */
     public SimpleCache(long timeoutMillis, int cacheSize) {
-        this.timeoutMillis = timeoutMillis;
-        this.cacheMap = new LRUMap<>(cacheSize);
+        this(new Builder<K,V>().withTimeoutAndSize(timeoutMillis, cacheSize));
+    }
+
+    private SimpleCache(Builder<K,V> builder) {
+        this.timeoutMillis = builder.accessMillis >= 0 ? builder.accessMillis : builder.timeoutMillis;
+        this.accessMillis = builder.accessMillis;
+        this.expiry = builder.expiry;
+        this.refreshMillis = builder.refreshMillis;
+        this.loadWaitTimeoutMillis = builder.loadWaitTimeoutMillis;
+        this.refreshExecutor = builder.refreshExecutor;
+        this.clock = builder.clock;
+        this.cacheMap = new ConcurrentHashMap<>();
+        if (builder.evictionPolicy != null) {
+            this.evictionPolicy = builder.evictionPolicy;
+            this.lruHead = null;
+            this.maximumWeight = -1;
+        } else {
+            this.maximumWeight = builder.weigher != null ? builder.maximumWeight : builder.cacheSize;
+            if (maximumWeight <= 0) {
+                throw new IllegalArgumentException("Maximum weight must be greater then zero.");
+            }
+            this.evictionPolicy = null;
+            this.lruHead = new CacheEntry<>(null);
+            lruHead.prev = lruHead;
+            lruHead.next = lruHead;
+        }
+        this.weigher = builder.weigher;
+        this.valueStrength = builder.valueStrength;
+        this.writer = builder.writer;
+        this.batchLoader = builder.batchLoader;
+        this.removals = builder.removalListener == null ? null : new RemovalDispatcher<>(builder.removalListener::onRemoval, builder.removalExecutor);
+        if (builder.sweepPeriodMillis > 0) {
+            this.timerWheel = new TimerWheel<>(clock.millis());
+            SweepTask.schedule(this, builder.sweepPeriodMillis);
+        } else {
+            this.timerWheel = null;
+        }
+    }
+
+    /**
+     * @param <K> key type
+     * @param <V> value type
+     * @return builder of a cache with non default settings
+     */
+    public static <K,V> Builder<K,V> builder() {
+        return new Builder<>();
     }
 
     @Override
@@ -48,7 +165,7 @@ public class SimpleCache<K,V> implements Cache<K,V> {
 
     @Override
     public boolean containsValue(Object value) {
-        for(CacheEntry<V> ce : cacheMap.values()) {
+        for(CacheEntry<K,V> ce : cacheMap.values()) {
             if ((value == null && ce.getValue() == null) || (value != null && value.equals(ce.getValue()) && isValid(ce))) {
                 return true;
             }
@@ -57,155 +174,1766 @@ public class SimpleCache<K,V> implements Cache<K,V> {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public V get(Object key) {
-        CacheEntry<V> ce = cacheMap.get(key);
-        return isValid(ce) ? ce.getValue() : null;
+        CacheEntry<K,V> ce = cacheMap.get(key);
+        if (ce != null) {
+            recordRead(ce);
+        }
+        V value = ce == null ? null : ce.getValue(); // read before validation, so it cannot be collected after it
+        if (isValid(ce)) {
+            stats.recordHits(1);
+            afterRead((K) key, value, ce);
+            return value;
+        }
+        stats.recordMisses(1);
+        return null;
     }
 
     @Override
     public V put(K key, V value) {
-        CacheEntry<V> ce = createOrGetEntry(key);
-        ce.put(entryTimeout(), value);
+        return put(key, value, (String[]) null);
+    }
+
+    /**
+     * Put value and replace tags of the entry.
+     * @param key key
+     * @param value value
+     * @param tags tags of the entry, <code>null</code> keeps current tags
+     * @return value of the entry
+     * @see #invalidateByTag(String)
+     */
+    public V put(K key, V value, String... tags) {
+        CacheEntry<K,V> ce = lockEntry(key, tags);
+        try {
+            if (writer != null) {
+                writeThrough(key, ce, value);
+            }
+            long now = now().toEpochMilli();
+            setValue(key, ce, now, expireAfterWrite(key, value, ce, now), value);
+            afterWrite(key, ce);
+        } finally {
+            ce.unlockLoad();
+        }
         return isValid(ce) ? ce.getValue() : null;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>Ttl of the entry is not calculated by {@link Expiry}, but it is for next writes and reads.</p>
+     */
+    @Override
+    public V put(K key, V value, long ttl, TimeUnit unit) {
+        CacheEntry<K,V> ce = lockEntry(key, null);
+        V old;
+        try {
+            if (writer != null) {
+                writeThrough(key, ce, value);
+            }
+            old = ce.getValue();
+            old = isValid(ce) ? old : null;
+            long now = now().toEpochMilli();
+            setValue(key, ce, now, deadline(now, unit.toMillis(ttl)), value);
+            afterWrite(key, ce);
+        } finally {
+            ce.unlockLoad();
+        }
+        return old;
+    }
+
     @Override
+    @SuppressWarnings("unchecked")
     public V remove(Object key) {
-        CacheEntry<V> ce = cacheMap.remove(key);
-        return isValid(ce) ? ce.getValue() : null;
+        CacheEntry<K,V> ce;
+        if (writer == null) {
+            lock.lock();
+            try {
+                ce = removeEntry(key);
+            } finally {
+                lock.unlock();
+            }
+        } else {
+            CacheEntry<K,V> locked = lockEntry((K) key, null);
+            try {
+                try {
+                    writer.delete((K) key);
+                } catch (RuntimeException | Error e) {
+                    discardIfEmpty((K) key, locked);
+                    throw e;
+                }
+                lock.lock();
+                try {
+                    ce = removeEntry(key);
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                locked.unlockLoad();
+            }
+        }
+        V value = isValid(ce) ? ce.getValue() : null;
+        retire(ce, RemovalCause.EXPLICIT);
+        dispatchRemovals();
+        return value;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>Entries are put one by one, each holding lock of its entry.</p>
+     */
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
-        m.entrySet().forEach(me -> {
-            CacheEntry<V> ce = createOrGetEntry(me.getKey());
-            ce.put(entryTimeout(), me.getValue());
-        });
+        m.forEach((k, v) -> put(k, v));
     }
 
     @Override
     public void clear() {
-        cacheMap.clear();
+        lock.lock();
+        try {
+            drainReads();
+            if (removals != null) {
+                cacheMap.values().forEach(ce -> retire(ce, RemovalCause.EXPLICIT));
+            }
+            cacheMap.clear();
+            tagIndex.clear();
+            clearEvictionOrder();
+            if (timerWheel != null) {
+                timerWheel.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        dispatchRemovals();
+    }
+
+    /**
+     * Remove expired entries.
+     * <p>With expiry sweeper enabled it is called periodically in background and removes expired entries in amortized O(1),
+     * otherwise it scans whole cache.</p>
+     */
+    public void cleanUp() {
+        final long now = now().toEpochMilli();
+        lock.lock();
+        try {
+            drainReads();
+            removeCollected();
+            if (timerWheel == null) {
+                Iterator<Entry<K,CacheEntry<K,V>>> it = cacheMap.entrySet().iterator();
+                while (it.hasNext()) {
+                    Entry<K,CacheEntry<K,V>> e = it.next();
+                    if (e.getValue().getTimeout() <= now && ! e.getValue().isLoading()) {
+                        it.remove();
+                        untag(e.getKey(), e.getValue());
+                        recordRemoval(e.getKey(), e.getValue());
+                        stats.recordExpiration();
+                        retire(e.getValue(), RemovalCause.EXPIRED);
+                    }
+                }
+            } else {
+                timerWheel.advance(now, node -> {
+                    CacheEntry<K,V> ce = node.entry;
+                    if (ce.getTimeout() > now) { // updated after it was scheduled
+                        node.deadline = ce.getTimeout();
+                        return false;
+                    }
+                    if (ce.isLoading()) {
+                        node.deadline = defaultDeadline(now);
+                        return false;
+                    }
+                    if (cacheMap.get(node.key) == ce) {
+                        cacheMap.remove(node.key);
+                        untag(node.key, ce);
+                        recordRemoval(node.key, ce);
+                        stats.recordExpiration();
+                        retire(ce, RemovalCause.EXPIRED);
+                    }
+                    return true;
+                });
+            }
+        } finally {
+            lock.unlock();
+        }
+        dispatchRemovals();
     }
 
     @Override
     public Set<K> keySet() {
-        return cacheMap.entrySet()
-                .stream()
-                .filter((e) -> isValid(e.getValue()))
-                .map(e -> e.getKey())
-                .collect(Collectors.toSet());
+        return keySet;
     }
 
     @Override
     public Collection<V> values() {
-        return cacheMap.values()
-                .stream()
-                .filter((ce) -> isValid(ce))
-                .map(ce -> ce.getValue())
-                .collect(Collectors.toList());
+        return values;
     }
 
     @Override
     public Set<Entry<K, V>> entrySet() {
-        return cacheMap.entrySet()
-                .stream()
-                .filter((e) -> isValid(e.getValue()))
-                .map(e -> new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue().getValue()))
-                .collect(Collectors.toSet());
+        return entrySet;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        long now = now().toEpochMilli();
+        for(CacheEntry<K,V> ce : cacheMap.values()) {
+            V value = ce.getValue();
+            if (isValid(ce, now)) {
+                action.accept(ce.getKey(), value);
+            }
+        }
     }
 
     @Override
     public V fetch(K key, Supplier<V> supplier) {
-        CacheEntry<V> ce = createOrGetEntry(key);
-        if (isValid(ce)) {
-            return ce.getValue();
+        return fetch(key, supplier, (String[]) null);
+    }
+
+    /**
+     * Fetch value and replace tags of the entry.
+     * @param key key
+     * @param supplier supplier of value if there is no valid value
+     * @param tags tags of the entry, <code>null</code> keeps current tags
+     * @return value
+     * @see #invalidateByTag(String)
+     */
+    public V fetch(K key, Supplier<V> supplier, String... tags) {
+        CacheEntry<K,V> ce = cacheMap.get(key);
+        if (ce == null || (tags != null && ! hasTags(ce, tags))) {
+            ce = createOrGetEntry(key, tags); // tags are re-indexed holding the lock
         } else {
-            ce.updateValue(entryTimeout(), supplier);
-            return ce.getValue();
+            recordRead(ce);
+        }
+        V value = ce.getValue();
+        if (isValid(ce)) {
+            stats.recordHits(1);
+            afterRead(key, value, ce);
+            if (needsRefresh(ce)) {
+                refresh(key, ce, supplier);
+            }
+            return value;
         }
+        stats.recordMisses(1);
+        return load(key, ce, supplier, tags);
     }
 
-    private boolean isValid(CacheEntry<V> ce) {
-        if (ce == null) {
-            return false;
+    /**
+     * {@inheritDoc}
+     * <p>All entries are looked up in one pass under the cache lock. Keys being loaded by other threads
+     * are not passed to the <code>loader</code>, their values are awaited instead.
+     * Unlike {@link #fetch(Object, Supplier)} it does not refresh entries in background.</p>
+     */
+    @Override
+    public Map<K,V> fetchAll(Collection<K> keys, Function<Set<K>, Map<K,V>> loader) {
+        Map<K,CacheEntry<K,V>> entries = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            for(K key : keys) {
+                entries.put(key, createOrGetEntryLocked(key));
+            }
+        } finally {
+            lock.unlock();
+        }
+        dispatchRemovals();
+        Map<K,V> result = new LinkedHashMap<>();
+        Map<K,CacheEntry<K,V>> missing = new LinkedHashMap<>();
+        for(Entry<K,CacheEntry<K,V>> e : entries.entrySet()) {
+            CacheEntry<K,V> ce = e.getValue();
+            V value = ce.getValue();
+            if (isValid(ce)) {
+                result.put(e.getKey(), value);
+                afterRead(e.getKey(), value, ce);
+            } else {
+                missing.put(e.getKey(), ce);
+            }
+        }
+        stats.recordHits(result.size());
+        stats.recordMisses(missing.size());
+        while (! missing.isEmpty()) {
+            missing = loadAll(missing, loader, result);
         }
-        return ce.getTimeout() > now().toEpochMilli();
+        return result;
     }
 
-    private CacheEntry<V> createOrGetEntry(K key) {
-        synchronized (cacheMap) {
-            CacheEntry<V> ce = cacheMap.get(key);
-            if (ce == null) {
-                ce = new CacheEntry<>();
-                cacheMap.put(key, ce);
+    /**
+     * Remove all entries of the tag. Entries are not deleted by {@link CacheWriter}.
+     * @param tag tag
+     * @return number of removed entries
+     */
+    public int invalidateByTag(String tag) {
+        List<CacheEntry<K,V>> removed = new ArrayList<>();
+        lock.lock();
+        try {
+            Set<K> keys = tagIndex.remove(tag);
+            if (keys != null) {
+                for(K key : keys) {
+                    CacheEntry<K,V> ce = removeEntry(key);
+                    if (ce != null) {
+                        removed.add(ce);
+                    }
+                }
             }
-            return ce;
+        } finally {
+            lock.unlock();
         }
+        removed.forEach(ce -> retire(ce, RemovalCause.EXPLICIT));
+        dispatchRemovals();
+        return removed.size();
     }
 
-    private long entryTimeout() {
-        return now().toEpochMilli() + timeoutMillis;
+    /**
+     * Remove entries of keys matching the predicate. Keys are tested without holding the cache lock.
+     * Entries are not deleted by {@link CacheWriter}.
+     * @param predicate predicate of keys to remove
+     * @return number of removed entries
+     */
+    public int invalidateIf(Predicate<? super K> predicate) {
+        List<CacheEntry<K,V>> matching = new ArrayList<>();
+        for(CacheEntry<K,V> ce : cacheMap.values()) {
+            if (predicate.test(ce.getKey())) {
+                matching.add(ce);
+            }
+        }
+        List<CacheEntry<K,V>> removed = new ArrayList<>(matching.size());
+        lock.lock();
+        try {
+            for(CacheEntry<K,V> ce : matching) {
+                if (cacheMap.get(ce.getKey()) == ce) {
+                    removeEntry(ce.getKey());
+                    removed.add(ce);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        removed.forEach(ce -> retire(ce, RemovalCause.EXPLICIT));
+        dispatchRemovals();
+        return removed.size();
     }
 
-    protected Instant now() {
-        return Instant.now();
+    /**
+     * {@inheritDoc}
+     * <p>Atomic, concurrent calls for the same key and fetches of it wait for the function.
+     * It is recorded in statistics as a hit or a miss.</p>
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        return computeEntry(key, (k, v) -> mappingFunction.apply(k), true, false);
     }
 
-}
+    /**
+     * {@inheritDoc}
+     * <p>Atomic, concurrent calls for the same key and fetches of it wait for the function.</p>
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return computeEntry(key, remappingFunction, false, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Atomic, concurrent calls for the same key and fetches of it wait for the function.</p>
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return computeEntry(key, remappingFunction, false, false);
+    }
 
+    /**
+     * {@inheritDoc}
+     * <p>Atomic, concurrent calls for the same key and fetches of it wait for the function.</p>
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        return computeEntry(key, (k, old) -> old == null ? value : remappingFunction.apply(old, value), false, false);
+    }
 
+    @Override
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
 
+    /**
+     * @return maximum size of the cache, maximum weight if it uses a {@link Weigher}
+     * @throws IllegalStateException if the cache uses an {@link EvictionPolicy}
+     */
+    long getMaximumWeight() {
+        if (evictionPolicy != null) {
+            throw new IllegalStateException("Maximum weight is defined by eviction policy.");
+        }
+        lock.lock();
+        try {
+            return maximumWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-class CacheEntry<V> {
-    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    private volatile long timeout = Long.MIN_VALUE;
-    private volatile V value;
+    /**
+     * Resize the cache, entries over new maximum are evicted in LRU order.
+     * @param maximumWeight new maximum size of the cache, maximum weight if it uses a {@link Weigher}
+     * @throws IllegalStateException if the cache uses an {@link EvictionPolicy}
+     */
+    void setMaximumWeight(long maximumWeight) {
+        if (evictionPolicy != null) {
+            throw new IllegalStateException("Maximum weight is defined by eviction policy.");
+        }
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be greater then zero.");
+        }
+        lock.lock();
+        try {
+            drainReads();
+            this.maximumWeight = maximumWeight;
+            evictOverweight();
+        } finally {
+            lock.unlock();
+        }
+        dispatchRemovals();
+    }
 
-    public long getTimeout() {
-        return timeout;
+    /**
+     * @return live view of cache entries, including invalid ones
+     */
+    Collection<CacheEntry<K,V>> entries() {
+        return cacheMap.values();
     }
 
-    public V getValue() {
-        Lock rl = this.readWriteLock.readLock();
-        rl.lock();
+    /**
+     * Load entries with one <code>loader</code> call, entries locked by other threads are skipped and awaited.
+     * @return entries to load again - skipped ones still invalid after other threads released them
+     * and entries created again for ones removed before they were locked
+     */
+    private Map<K,CacheEntry<K,V>> loadAll(Map<K,CacheEntry<K,V>> entries, Function<Set<K>, Map<K,V>> loader, Map<K,V> result) {
+        Map<K,CacheEntry<K,V>> locked = new LinkedHashMap<>();
+        Map<K,CacheEntry<K,V>> busy = new LinkedHashMap<>();
+        List<K> removed = new ArrayList<>();
+        Map<K,V> loaded = Collections.emptyMap();
         try {
-            return value;
+            for(Entry<K,CacheEntry<K,V>> e : entries.entrySet()) {
+                CacheEntry<K,V> ce = e.getValue();
+                if (! ce.tryLockLoad()) { // never block holding other entries locks
+                    busy.put(e.getKey(), ce);
+                    continue;
+                }
+                V value = ce.getValue();
+                if (isValid(ce)) { // loaded by other thread in the meantime
+                    ce.unlockLoad();
+                    result.put(e.getKey(), value);
+                } else if (cacheMap.get(e.getKey()) != ce) { // removed before it was locked
+                    ce.unlockLoad();
+                    removed.add(e.getKey());
+                } else {
+                    locked.put(e.getKey(), ce);
+                    if (ce.getTimeout() != Long.MIN_VALUE) {
+                        stats.recordExpiration();
+                    }
+                }
+            }
+            if (! locked.isEmpty()) {
+                long start = System.nanoTime();
+                try {
+                    loaded = loader.apply(Collections.unmodifiableSet(locked.keySet()));
+                } catch (RuntimeException | Error e) {
+                    stats.recordLoadFailure(System.nanoTime() - start);
+                    throw e;
+                }
+                stats.recordLoadSuccess(System.nanoTime() - start);
+                long now = now().toEpochMilli();
+                for(Entry<K,CacheEntry<K,V>> e : locked.entrySet()) {
+                    if (loaded.containsKey(e.getKey())) {
+                        V value = loaded.get(e.getKey());
+                        setValue(e.getKey(), e.getValue(), now, expireAfterWrite(e.getKey(), value, e.getValue(), now), value);
+                        result.put(e.getKey(), value);
+                    }
+                }
+            }
         } finally {
-            rl.unlock();
+            locked.values().forEach(CacheEntry::unlockLoad);
+        }
+        for(Entry<K,CacheEntry<K,V>> e : locked.entrySet()) {
+            if (loaded.containsKey(e.getKey())) {
+                afterWrite(e.getKey(), e.getValue());
+            }
+        }
+        Map<K,CacheEntry<K,V>> remaining = new LinkedHashMap<>();
+        for(K key : removed) {
+            remaining.put(key, createOrGetEntry(key));
+        }
+        for(Entry<K,CacheEntry<K,V>> e : busy.entrySet()) {
+            CacheEntry<K,V> ce = e.getValue();
+            lockForLoad(ce);
+            try {
+                V value = ce.getValue();
+                if (isValid(ce)) {
+                    result.put(e.getKey(), value);
+                } else {
+                    remaining.put(e.getKey(), ce);
+                }
+            } finally {
+                ce.unlockLoad();
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Compute new value holding entry's load lock. Invalid entries and <code>null</code> values are treated as absent,
+     * <code>null</code> result removes the entry.
+     * @param ifAbsent compute only if there is no value, it is returned otherwise
+     * @param ifPresent compute only if there is a value
+     * @return new value
+     */
+    private V computeEntry(K key, BiFunction<? super K, ? super V, ? extends V> remapping, boolean ifAbsent, boolean ifPresent) {
+        while (true) {
+            CacheEntry<K,V> ce = ifPresent ? cacheMap.get(key) : createOrGetEntry(key);
+            if (ce == null) {
+                return null;
+            }
+            lockForLoad(ce);
+            try {
+                if (cacheMap.get(key) != ce) {
+                    continue; // removed in the meantime
+                }
+                V old = ce.getValue();
+                if (! isValid(ce)) {
+                    old = null;
+                }
+                if (ifAbsent) {
+                    if (old != null) {
+                        stats.recordHits(1);
+                        afterRead(key, old, ce);
+                        return old;
+                    }
+                    stats.recordMisses(1);
+                } else if (ifPresent && old == null) {
+                    return null;
+                }
+                V value = remapping.apply(key, old);
+                if (writer != null) {
+                    if (value != null) {
+                        writer.write(key, value);
+                    } else if (old != null) {
+                        writer.delete(key);
+                    }
+                }
+                if (value == null) {
+                    lock.lock();
+                    try {
+                        if (cacheMap.get(key) == ce) {
+                            removeEntry(key);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    retire(ce, RemovalCause.EXPLICIT);
+                    dispatchRemovals();
+                } else {
+                    long now = now().toEpochMilli();
+                    setValue(key, ce, now, expireAfterWrite(key, value, ce, now), value);
+                    afterWrite(key, ce);
+                }
+                return value;
+            } finally {
+                ce.unlockLoad();
+            }
+        }
+    }
+
+    private boolean needsRefresh(CacheEntry<K,V> ce) {
+        return refreshMillis >= 0 && ce.getWriteTime() + refreshMillis <= now().toEpochMilli();
+    }
+
+    private void refresh(K key, CacheEntry<K,V> ce, Supplier<V> supplier) {
+        if (! ce.startRefresh()) {
+            return; // refresh already in progress
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                ce.lockLoad();
+                try {
+                    if (needsRefresh(ce)) {
+                        loadValue(key, ce, supplier);
+                    }
+                } finally {
+                    ce.unlockLoad();
+                    ce.endRefresh();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ce.endRefresh();
+        }
+    }
+
+    /**
+     * @param tags tags of the entry if it has to be created again, <code>null</code> keeps current tags
+     */
+    private V load(K key, CacheEntry<K,V> ce, Supplier<V> supplier, String[] tags) {
+        while (true) {
+            lockForLoad(ce);
+            try {
+                V value = ce.getValue();
+                if (isValid(ce)) { // loaded by other thread in the meantime
+                    return value;
+                }
+                if (cacheMap.get(key) == ce) {
+                    if (ce.getTimeout() != Long.MIN_VALUE) {
+                        stats.recordExpiration();
+                    }
+                    return loadValue(key, ce, supplier);
+                }
+            } finally {
+                ce.unlockLoad();
+            }
+            ce = createOrGetEntry(key, tags); // removed before it was locked, a value loaded to it would be lost
+        }
+    }
+
+    /**
+     * Must be called holding entry's load lock.
+     * Entry stays invalid until supplier returns, so a failing supplier leaves it invalid.
+     * @return loaded value
+     */
+    private V loadValue(K key, CacheEntry<K,V> ce, Supplier<V> supplier) {
+        long start = System.nanoTime();
+        V value;
+        try {
+            value = batchLoader == null ? supplier.get() : batchLoader.load(key, supplier);
+        } catch (RuntimeException | Error e) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            throw e;
+        }
+        stats.recordLoadSuccess(System.nanoTime() - start);
+        long now = now().toEpochMilli();
+        setValue(key, ce, now, expireAfterWrite(key, value, ce, now), value);
+        afterWrite(key, ce);
+        return value;
+    }
+
+    private void lockForLoad(CacheEntry<K,V> ce) {
+        if (loadWaitTimeoutMillis < 0) {
+            ce.lockLoad();
+            return;
+        }
+        try {
+            if (! ce.tryLockLoad(loadWaitTimeoutMillis)) {
+                throw new CacheLoadTimeoutException("Value not loaded by other thread within " + loadWaitTimeoutMillis + "ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheLoadTimeoutException("Interrupted while waiting for a value loaded by other thread.", e);
+        }
+    }
+
+    private boolean isValid(CacheEntry<K,V> ce) {
+        return ce != null && isValid(ce, now().toEpochMilli());
+    }
+
+    private static boolean isValid(CacheEntry<?,?> ce, long now) {
+        return ce.getTimeout() > now && ! ce.isCollected();
+    }
+
+    private void setValue(K key, CacheEntry<K,V> ce, long writeTime, long timeout, V value) {
+        if (removals == null) {
+            putValue(ce, writeTime, timeout, value);
+            return;
+        }
+        V previous;
+        long previousTimeout;
+        boolean collected;
+        synchronized (ce) { // each previous value is notified once
+            previous = ce.getValue();
+            previousTimeout = ce.getTimeout();
+            collected = ce.isCollected();
+            putValue(ce, writeTime, timeout, value);
+        }
+        if (previousTimeout != Long.MIN_VALUE) {
+            removals.enqueue(key, previous, collected ? RemovalCause.COLLECTED : previousTimeout <= writeTime ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+            removals.dispatch();
+        }
+    }
+
+    private void putValue(CacheEntry<K,V> ce, long writeTime, long timeout, V value) {
+        if (value == null || valueStrength == null) {
+            ce.put(writeTime, timeout, value);
+        } else if (valueStrength == ReferenceStrength.SOFT) {
+            ce.putReference(writeTime, timeout, new SoftValue<>(ce, value, collectedValues));
+        } else {
+            ce.putReference(writeTime, timeout, new WeakValue<>(ce, value, collectedValues));
+        }
+    }
+
+    /**
+     * Drop value of an entry removed from the map and queue its removal notification.
+     * Entries not loaded yet are not notified.
+     * @param cause cause of removal, unless the entry has expired or its value was collected
+     */
+    private void retire(CacheEntry<K,V> ce, RemovalCause cause) {
+        if (removals == null || ce == null) {
+            return;
+        }
+        V value;
+        long timeout;
+        boolean collected;
+        synchronized (ce) {
+            value = ce.getValue();
+            timeout = ce.getTimeout();
+            collected = ce.isCollected();
+            ce.put(ce.getWriteTime(), Long.MIN_VALUE, null);
+        }
+        if (timeout != Long.MIN_VALUE) {
+            if (collected) {
+                cause = RemovalCause.COLLECTED;
+            } else if (timeout <= now().toEpochMilli()) {
+                cause = RemovalCause.EXPIRED;
+            }
+            removals.enqueue(ce.getKey(), value, cause);
+        }
+    }
+
+    /**
+     * Deliver queued removal notifications, must not be called holding the cache lock.
+     */
+    private void dispatchRemovals() {
+        if (removals != null) {
+            removals.dispatch();
+        }
+    }
+
+    /** Must be called holding the cache lock. */
+    @SuppressWarnings("unchecked")
+    private void removeCollected() {
+        if (valueStrength == null) {
+            return;
+        }
+        ValueReference<K,V> ref;
+        while ((ref = (ValueReference<K,V>) collectedValues.poll()) != null) {
+            CacheEntry<K,V> ce = ref.getEntry();
+            if (cacheMap.get(ce.getKey()) == ce && ce.isCollected() && ! ce.isLoading()) {
+                removeEntry(ce.getKey());
+                stats.recordEviction();
+                retire(ce, RemovalCause.COLLECTED);
+            }
+        }
+    }
+
+    private CacheEntry<K,V> createOrGetEntry(K key) {
+        return createOrGetEntry(key, null);
+    }
+
+    /**
+     * Entry of the key holding its load lock, it is created if it does not exist.
+     * Writes holding the lock reach the {@link CacheWriter} and the cache in the same order.
+     * @param tags new tags of the entry, <code>null</code> keeps current tags
+     */
+    private CacheEntry<K,V> lockEntry(K key, String[] tags) {
+        while (true) {
+            CacheEntry<K,V> ce = createOrGetEntry(key, tags);
+            ce.lockLoad();
+            if (cacheMap.get(key) == ce) {
+                return ce;
+            }
+            ce.unlockLoad(); // removed in the meantime
+        }
+    }
+
+    /**
+     * Must be called holding entry's load lock. If the writer fails an entry created for the write is removed,
+     * so the cache is not modified.
+     */
+    private void writeThrough(K key, CacheEntry<K,V> ce, V value) {
+        try {
+            writer.write(key, value);
+        } catch (RuntimeException | Error e) {
+            discardIfEmpty(key, ce);
+            throw e;
         }
     }
 
-    public void updateValue(long timeout, Supplier<V> supplier) {
-        Lock wl = this.readWriteLock.writeLock();
-        if (! wl.tryLock()) {
-            throw new IllegalStateException();
+    /**
+     * Remove the entry if no value has been put to it yet.
+     */
+    private void discardIfEmpty(K key, CacheEntry<K,V> ce) {
+        if (ce.getTimeout() != Long.MIN_VALUE) {
+            return;
         }
+        lock.lock();
         try {
-            this.value = null;
-            this.timeout = timeout;
-            this.value = supplier.get();
+            if (cacheMap.get(key) == ce) {
+                removeEntry(key);
+            }
         } finally {
-            wl.unlock();
+            lock.unlock();
         }
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) { return true; }
-        if (o == null || getClass() != o.getClass()) { return false; }
-        CacheEntry<?> that = (CacheEntry<?>) o;
-        return !(value != null ? !value.equals(that.value) : that.value != null);
+    /**
+     * @param tags new tags of the entry, <code>null</code> keeps current tags
+     */
+    private CacheEntry<K,V> createOrGetEntry(K key, String[] tags) {
+        CacheEntry<K,V> ce;
+        lock.lock();
+        try {
+            ce = createOrGetEntryLocked(key);
+            if (tags != null) {
+                tag(key, ce, tags);
+            }
+        } finally {
+            lock.unlock();
+        }
+        dispatchRemovals();
+        return ce;
     }
 
-    @Override
-    public int hashCode() {
-        return value != null ? value.hashCode() : 0;
+    /** Must be called holding the cache lock. */
+    private CacheEntry<K,V> createOrGetEntryLocked(K key) {
+        drainReads();
+        removeCollected();
+        CacheEntry<K,V> ce = cacheMap.get(key);
+        if (ce == null) {
+            ce = new CacheEntry<>(key);
+            if (timerWheel != null) {
+                ce.setTimerNode(timerWheel.schedule(key, ce, defaultDeadline(now().toEpochMilli())));
+            }
+            cacheMap.put(key, ce);
+            recordUpdate(key, ce, weigher == null ? 1 : 0, true);
+        } else {
+            recordAccess(key, ce);
+        }
+        return ce;
     }
 
-    public void put(long timeout, V value) {
-        this.timeout = timeout;
-        this.value = value;
+    /** Must be called holding the cache lock. */
+    private void tag(K key, CacheEntry<K,V> ce, String[] tags) {
+        if (hasTags(ce, tags)) {
+            return;
+        }
+        untag(key, ce);
+        if (tags.length > 0) {
+            ce.setTags(tags.clone());
+            for(String tag : tags) {
+                tagIndex.computeIfAbsent(tag, t -> new HashSet<>()).add(key);
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the entry has exactly the tags, so they do not have to be indexed again
+     */
+    private static boolean hasTags(CacheEntry<?,?> ce, String[] tags) {
+        String[] current = ce.getTags();
+        return current == null ? tags.length == 0 : Arrays.equals(current, tags);
+    }
+
+    /** Must be called holding the cache lock. */
+    private void untag(K key, CacheEntry<K,V> ce) {
+        String[] tags = ce.getTags();
+        if (tags == null) {
+            return;
+        }
+        for(String tag : tags) {
+            Set<K> keys = tagIndex.get(tag);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    tagIndex.remove(tag);
+                }
+            }
+        }
+        ce.setTags(null);
     }
-}
 
+    /**
+     * Update weight of the entry and its place in the timing wheel after its value was written.
+     */
+    @SuppressWarnings("unchecked")
+    private void afterWrite(K key, CacheEntry<K,V> ce) {
+        if (weigher == null && timerWheel == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (cacheMap.get(key) != ce) { // evicted in the meantime
+                return;
+            }
+            drainReads();
+            if (timerWheel != null) {
+                TimerWheel.Node<K,CacheEntry<K,V>> node = (TimerWheel.Node<K,CacheEntry<K,V>>) ce.getTimerNode();
+                if (node.deadline > ce.getTimeout()) { // later deadlines are rescheduled by cleanUp()
+                    timerWheel.deschedule(node);
+                    ce.setTimerNode(timerWheel.schedule(key, ce, ce.getTimeout()));
+                }
+            }
+            if (weigher != null) {
+                V value = ce.getValue();
+                int weight = value == null ? 0 : weigher.weigh(key, value);
+                if (weight < 0) {
+                    throw new IllegalStateException("Negative weight " + weight + " of key " + key + ".");
+                }
+                recordUpdate(key, ce, weight, false);
+            }
+        } finally {
+            lock.unlock();
+        }
+        dispatchRemovals();
+    }
+
+    /** Must be called holding the cache lock. */
+    @SuppressWarnings("unchecked")
+    private CacheEntry<K,V> removeEntry(Object key) {
+        CacheEntry<K,V> ce = cacheMap.remove(key);
+        if (ce != null) {
+            untag((K) key, ce);
+            recordRemoval((K) key, ce);
+            deschedule(ce);
+        }
+        return ce;
+    }
+
+    /**
+     * Buffer access of a read entry. When the buffer is full the reader drains it, unless other thread holds the cache lock -
+     * the access is dropped then, readers never wait for the lock.
+     */
+    private void recordRead(CacheEntry<K,V> ce) {
+        if (readBuffer.offer(ce) || ! lock.tryLock()) {
+            return;
+        }
+        try {
+            drainReads();
+            if (cacheMap.get(ce.getKey()) == ce) {
+                recordAccess(ce.getKey(), ce);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record accesses of reads, entries removed since they were read are skipped.
+     * Must be called holding the cache lock.
+     */
+    private void drainReads() {
+        readBuffer.drain(ce -> {
+            if (cacheMap.get(ce.getKey()) == ce) {
+                recordAccess(ce.getKey(), ce);
+            }
+        });
+    }
+
+    /** Must be called holding the cache lock. */
+    private void recordAccess(K key, CacheEntry<K,V> ce) {
+        if (evictionPolicy != null) {
+            evictionPolicy.recordAccess(key);
+        } else if (ce.prev != null) {
+            unlinkLru(ce);
+            linkLruLast(ce);
+        }
+    }
+
+    /**
+     * Must be called holding the cache lock.
+     * @param insert <code>true</code> for a new entry
+     */
+    private void recordUpdate(K key, CacheEntry<K,V> ce, int weight, boolean insert) {
+        if (evictionPolicy != null) {
+            if (insert) {
+                evictionPolicy.recordInsert(key, weight, this::evict);
+            } else {
+                evictionPolicy.recordUpdate(key, weight, this::evict);
+            }
+            return;
+        }
+        if (ce.prev != null) {
+            unlinkLru(ce);
+        }
+        if (weight > maximumWeight) { // would flush the whole cache
+            evict(key);
+            return;
+        }
+        ce.weight = weight;
+        linkLruLast(ce);
+        evictOverweight();
+    }
+
+    /** Must be called holding the cache lock. */
+    private void evictOverweight() {
+        while (totalWeight > maximumWeight) {
+            CacheEntry<K,V> eldest = lruHead.next;
+            unlinkLru(eldest);
+            evict(eldest.getKey());
+        }
+    }
+
+    /** Must be called holding the cache lock. */
+    private void recordRemoval(K key, CacheEntry<K,V> ce) {
+        if (evictionPolicy != null) {
+            evictionPolicy.recordRemoval(key);
+        } else if (ce.prev != null) {
+            unlinkLru(ce);
+        }
+    }
+
+    /** Must be called holding the cache lock. */
+    private void clearEvictionOrder() {
+        if (evictionPolicy != null) {
+            evictionPolicy.clear();
+        } else {
+            lruHead.prev = lruHead;
+            lruHead.next = lruHead;
+            totalWeight = 0;
+        }
+    }
+
+    private void linkLruLast(CacheEntry<K,V> ce) {
+        ce.prev = lruHead.prev;
+        ce.next = lruHead;
+        lruHead.prev.next = ce;
+        lruHead.prev = ce;
+        totalWeight += ce.weight;
+    }
+
+    private void unlinkLru(CacheEntry<K,V> ce) {
+        ce.prev.next = ce.next;
+        ce.next.prev = ce.prev;
+        ce.prev = null;
+        ce.next = null;
+        totalWeight -= ce.weight;
+    }
+
+    /** Called by eviction policy holding the cache lock. */
+    private void evict(K key) {
+        stats.recordEviction();
+        CacheEntry<K,V> ce = cacheMap.remove(key);
+        deschedule(ce);
+        if (ce != null) {
+            untag(key, ce);
+            evicted(key, ce.getValue(), ce.getTimeout());
+            retire(ce, RemovalCause.SIZE);
+        }
+    }
+
+    /**
+     * Called holding the cache lock after an entry has been removed because the cache exceeded its size.
+     * @param key key of removed entry
+     * @param value value of removed entry, <code>null</code> if it was not loaded
+     * @param timeout expiration time of removed entry in milliseconds
+     */
+    protected void evicted(K key, V value, long timeout) {
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deschedule(CacheEntry<K,V> ce) {
+        if (ce != null && timerWheel != null) {
+            timerWheel.deschedule((TimerWheel.Node<K,CacheEntry<K,V>>) ce.getTimerNode());
+        }
+    }
+
+    private long expireAfterWrite(K key, V value, CacheEntry<K,V> ce, long now) {
+        if (expiry == null) {
+            return deadline(now, timeoutMillis);
+        }
+        long timeout = ce.getTimeout();
+        if (timeout > now) {
+            return deadline(now, expiry.expireAfterUpdate(key, value, now, timeout - now));
+        } else {
+            return deadline(now, expiry.expireAfterCreate(key, value, now));
+        }
+    }
+
+    /**
+     * Update deadline of a read entry, if it expires after access or by expiry.
+     */
+    private void afterRead(K key, V value, CacheEntry<K,V> ce) {
+        if (expiry != null) {
+            expireAfterRead(key, value, ce);
+        } else if (accessMillis >= 0) {
+            expireAfterAccess(ce);
+        }
+    }
+
+    /**
+     * Extend deadline of a read entry. It is written only when it moves by 1/16 of time to idle,
+     * so reads of a hot entry do not compete writing the same field.
+     */
+    private void expireAfterAccess(CacheEntry<K,V> ce) {
+        long timeout = ce.getTimeout();
+        long deadline = deadline(now().toEpochMilli(), accessMillis);
+        if (deadline - timeout > accessMillis >> 4) {
+            ce.casTimeout(timeout, deadline); // skipped if other read or write updated it
+        }
+    }
+
+    private void expireAfterRead(K key, V value, CacheEntry<K,V> ce) {
+        long now = now().toEpochMilli();
+        long timeout = ce.getTimeout();
+        long duration = expiry.expireAfterRead(key, value, now, timeout - now);
+        if (duration != timeout - now) {
+            ce.casTimeout(timeout, deadline(now, duration)); // skipped if the entry was written in the meantime
+        }
+    }
+
+    /**
+     * @return deadline of an entry not written yet
+     */
+    private long defaultDeadline(long now) {
+        return expiry == null ? deadline(now, timeoutMillis) : now;
+    }
+
+    /**
+     * @return <code>now + duration</code> saturated at {@link Long#MAX_VALUE}, so a very long ttl never overflows into the past
+     */
+    static long deadline(long now, long duration) {
+        if (duration <= 0) {
+            return now;
+        }
+        return duration >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + duration;
+    }
+
+    protected Instant now() {
+        return clock.instant();
+    }
+
+
+
+    private final class KeySetView extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            return new ValidIterator<>(CacheEntry::getKey);
+        }
+
+        @Override
+        public Spliterator<K> spliterator() {
+            return new ValidSpliterator<>(cacheMap.values().spliterator(), CacheEntry::getKey, Spliterator.DISTINCT | Spliterator.NONNULL);
+        }
+
+        @Override
+        public int size() {
+            return countValid();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return ! iterator().hasNext();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return isValid(cacheMap.get(o));
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return SimpleCache.this.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            SimpleCache.this.clear();
+        }
+    }
+
+
+
+    private final class ValuesView extends AbstractCollection<V> {
+        @Override
+        public Iterator<V> iterator() {
+            return new ValidIterator<>(CacheEntry::getValue);
+        }
+
+        @Override
+        public Spliterator<V> spliterator() {
+            return new ValidSpliterator<>(cacheMap.values().spliterator(), CacheEntry::getValue, 0);
+        }
+
+        @Override
+        public int size() {
+            return countValid();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return ! iterator().hasNext();
+        }
+
+        @Override
+        public void clear() {
+            SimpleCache.this.clear();
+        }
+    }
+
+
+
+    private final class EntrySetView extends AbstractSet<Entry<K,V>> {
+        @Override
+        public Iterator<Entry<K,V>> iterator() {
+            return new ValidIterator<>(ce -> ce);
+        }
+
+        @Override
+        public Spliterator<Entry<K,V>> spliterator() {
+            return new ValidSpliterator<>(cacheMap.values().spliterator(), ce -> ce, Spliterator.DISTINCT | Spliterator.NONNULL);
+        }
+
+        @Override
+        public int size() {
+            return countValid();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return ! iterator().hasNext();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (! (o instanceof Entry)) {
+                return false;
+            }
+            Entry<?,?> e = (Entry<?,?>) o;
+            CacheEntry<K,V> ce = cacheMap.get(e.getKey());
+            return ce != null && ce.equals(e) && isValid(ce);
+        }
+
+        @Override
+        public void clear() {
+            SimpleCache.this.clear();
+        }
+    }
+
+    private int countValid() {
+        long now = now().toEpochMilli();
+        int count = 0;
+        for(CacheEntry<K,V> ce : cacheMap.values()) {
+            if (isValid(ce, now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+
+    /**
+     * Iterates valid entries of the map, validity is checked against time the iterator was created at.
+     */
+    private final class ValidIterator<T> implements Iterator<T> {
+        private final Iterator<CacheEntry<K,V>> it = cacheMap.values().iterator();
+        private final Function<CacheEntry<K,V>,T> mapper;
+        private final long now = now().toEpochMilli();
+        private CacheEntry<K,V> next, last;
+
+        private ValidIterator(Function<CacheEntry<K,V>,T> mapper) {
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && it.hasNext()) {
+                CacheEntry<K,V> ce = it.next();
+                if (isValid(ce, now)) {
+                    next = ce;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = null;
+            return mapper.apply(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            SimpleCache.this.remove(last.getKey());
+            last = null;
+        }
+    }
+
+
+
+    /**
+     * Splits like the spliterator of the map, skips invalid entries.
+     */
+    private final class ValidSpliterator<T> implements Spliterator<T>, Consumer<CacheEntry<K,V>> {
+        private final Spliterator<CacheEntry<K,V>> spliterator;
+        private final Function<CacheEntry<K,V>,T> mapper;
+        private final int characteristics;
+        private final long now;
+        private CacheEntry<K,V> current;
+
+        private ValidSpliterator(Spliterator<CacheEntry<K,V>> spliterator, Function<CacheEntry<K,V>,T> mapper, int characteristics) {
+            this(spliterator, mapper, characteristics, now().toEpochMilli());
+        }
+
+        private ValidSpliterator(Spliterator<CacheEntry<K,V>> spliterator, Function<CacheEntry<K,V>,T> mapper, int characteristics, long now) {
+            this.spliterator = spliterator;
+            this.mapper = mapper;
+            this.characteristics = characteristics | Spliterator.CONCURRENT;
+            this.now = now;
+        }
+
+        @Override
+        public void accept(CacheEntry<K,V> ce) {
+            current = ce;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (spliterator.tryAdvance(this)) {
+                CacheEntry<K,V> ce = current;
+                current = null;
+                if (isValid(ce, now)) {
+                    action.accept(mapper.apply(ce));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            spliterator.forEachRemaining(ce -> {
+                if (isValid(ce, now)) {
+                    action.accept(mapper.apply(ce));
+                }
+            });
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            Spliterator<CacheEntry<K,V>> split = spliterator.trySplit();
+            return split == null ? null : new ValidSpliterator<>(split, mapper, characteristics, now);
+        }
+
+        @Override
+        public long estimateSize() {
+            return spliterator.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return characteristics;
+        }
+    }
+
+
+
+    /**
+     * Periodic {@link SimpleCache#cleanUp()}, cancels itself when the cache is garbage collected.
+     */
+    private static final class SweepTask implements Runnable {
+        private final WeakReference<SimpleCache<?,?>> cacheRef;
+        private volatile ScheduledFuture<?> future;
+
+        private SweepTask(SimpleCache<?,?> cache) {
+            this.cacheRef = new WeakReference<>(cache);
+        }
+
+        static void schedule(SimpleCache<?,?> cache, long periodMillis) {
+            SweepTask task = new SweepTask(cache);
+            task.future = CacheThreads.scheduler().scheduleWithFixedDelay(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            SimpleCache<?,?> cache = cacheRef.get();
+            if (cache == null) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+            } else {
+                cache.cleanUp();
+            }
+        }
+    }
+
+
+
+    private enum ReferenceStrength {
+        SOFT, WEAK
+    }
+
+
+
+    private static final class SoftValue<K,V> extends SoftReference<V> implements ValueReference<K,V> {
+        private final CacheEntry<K,V> entry;
+
+        private SoftValue(CacheEntry<K,V> entry, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.entry = entry;
+        }
+
+        @Override
+        public CacheEntry<K,V> getEntry() {
+            return entry;
+        }
+    }
+
+
+
+    private static final class WeakValue<K,V> extends WeakReference<V> implements ValueReference<K,V> {
+        private final CacheEntry<K,V> entry;
+
+        private WeakValue(CacheEntry<K,V> entry, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.entry = entry;
+        }
+
+        @Override
+        public CacheEntry<K,V> getEntry() {
+            return entry;
+        }
+    }
+
+
+
+    /**
+     * Builder of {@link SimpleCache}
+     * @param <K> key type
+     * @param <V> value type
+     */
+    public static final class Builder<K,V> {
+        private long timeoutMillis = -1;
+        private long accessMillis = -1;
+        private Expiry<? super K, ? super V> expiry;
+        private int cacheSize = -1;
+        private long maximumWeight = -1;
+        private Weigher<? super K, ? super V> weigher;
+        private long refreshMillis = -1;
+        private long loadWaitTimeoutMillis = -1;
+        private long sweepPeriodMillis = -1;
+        private EvictionPolicy<K> evictionPolicy;
+        private ReferenceStrength valueStrength;
+        private Executor refreshExecutor = ForkJoinPool.commonPool();
+        private RemovalListener<? super K, ? super V> removalListener;
+        private Executor removalExecutor;
+        private CacheWriter<K,V> writer;
+        private BatchingLoader<K,V> batchLoader;
+        private Clock clock = Clock.systemUTC();
+
+        private Builder() {
+        }
+
+        private Builder<K,V> withTimeoutAndSize(long timeoutMillis, int cacheSize) {
+            this.timeoutMillis = timeoutMillis;
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * @param duration cache ttl
+         * @param unit unit of <code>duration</code>
+         * @return this builder
+         */
+        public Builder<K,V> expireAfterWrite(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("Duration must be greater then zero.");
+            }
+            this.timeoutMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Expire entries not read nor written for <code>duration</code>, instead of the same ttl of all entries.
+         * Deadline of a read entry is updated lazily, an entry can expire up to 1/16 of <code>duration</code> earlier.
+         * @param duration time to idle
+         * @param unit unit of <code>duration</code>
+         * @return this builder
+         * @see #expireAfterWrite(long, TimeUnit)
+         */
+        public Builder<K,V> expireAfterAccess(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("Duration must be greater then zero.");
+            }
+            this.accessMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * @param expiry calculates ttl of each entry, instead of the same ttl of all entries
+         * @return this builder
+         * @see #expireAfterWrite(long, TimeUnit)
+         */
+        public Builder<K,V> expireAfter(Expiry<? super K, ? super V> expiry) {
+            if (expiry == null) {
+                throw new IllegalArgumentException("Expiry cannot be null.");
+            }
+            this.expiry = expiry;
+            return this;
+        }
+
+        /**
+         * @param cacheSize cache size, entries over it are evicted in LRU order
+         * @return this builder
+         */
+        public Builder<K,V> maximumSize(int cacheSize) {
+            if (cacheSize <= 0) {
+                throw new IllegalArgumentException("Cache size must be greater then zero.");
+            }
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * Reload entries older then <code>duration</code> in background, when they are fetched.
+         * Until the new value is loaded the old one is returned, unless it expires.
+         * @param duration time after write an entry is refreshed, must be shorter then ttl
+         * @param unit unit of <code>duration</code>
+         * @return this builder
+         * @see #refreshExecutor(Executor)
+         */
+        public Builder<K,V> refreshAfterWrite(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("Duration cannot be negative.");
+            }
+            this.refreshMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * @param executor executor refreshes are run in, by default {@link ForkJoinPool#commonPool()}
+         * @return this builder
+         */
+        public Builder<K,V> refreshExecutor(Executor executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("Executor cannot be null.");
+            }
+            this.refreshExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Remove expired entries in background. Deadlines of entries are kept in a hierarchical timing wheel,
+         * so a sweep costs amortized O(1) per expired entry.
+         * @param period time between sweeps, precision of the timing wheel is about 1 second
+         * @param unit unit of <code>period</code>
+         * @return this builder
+         * @see SimpleCache#cleanUp()
+         */
+        public Builder<K,V> expirySweeper(long period, TimeUnit unit) {
+            if (period <= 0) {
+                throw new IllegalArgumentException("Period must be greater then zero.");
+            }
+            this.sweepPeriodMillis = unit.toMillis(period);
+            return this;
+        }
+
+        /**
+         * @param clock clock used to compute entries expiration time
+         * @return this builder
+         */
+        public Builder<K,V> clock(Clock clock) {
+            if (clock == null) {
+                throw new IllegalArgumentException("Clock cannot be null.");
+            }
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * @param maximumWeight maximum total weight of entries, entries over it are evicted in LRU order
+         * @return this builder
+         * @see #weigher(Weigher)
+         */
+        public Builder<K,V> maximumWeight(long maximumWeight) {
+            if (maximumWeight <= 0) {
+                throw new IllegalArgumentException("Maximum weight must be greater then zero.");
+            }
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * @param weigher calculates weights of entries, required by {@link #maximumWeight(long)}
+         *                and optional for {@link #evictionPolicy(EvictionPolicy)}
+         * @return this builder
+         */
+        public Builder<K,V> weigher(Weigher<? super K, ? super V> weigher) {
+            if (weigher == null) {
+                throw new IllegalArgumentException("Weigher cannot be null.");
+            }
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * @param evictionPolicy policy of entries eviction, it defines maximum size (or weight) of the cache
+         * @return this builder
+         * @see EvictionPolicy#windowTinyLfu(long)
+         */
+        public Builder<K,V> evictionPolicy(EvictionPolicy<K> evictionPolicy) {
+            if (evictionPolicy == null) {
+                throw new IllegalArgumentException("Eviction policy cannot be null.");
+            }
+            this.evictionPolicy = evictionPolicy;
+            return this;
+        }
+
+        /**
+         * Hold values by {@link SoftReference}s, so garbage collector removes them when it runs out of memory.
+         * Entries of collected values are removed from the cache when it is modified.
+         * @return this builder
+         */
+        public Builder<K,V> softValues() {
+            this.valueStrength = ReferenceStrength.SOFT;
+            return this;
+        }
+
+        /**
+         * Hold values by {@link WeakReference}s, so they are removed when they are not used outside of the cache.
+         * Entries of collected values are removed from the cache when it is modified.
+         * @return this builder
+         */
+        public Builder<K,V> weakValues() {
+            this.valueStrength = ReferenceStrength.WEAK;
+            return this;
+        }
+
+        /**
+         * Notify the listener about removed, expired and replaced values. Notifications are delivered
+         * by {@link ForkJoinPool#commonPool()}.
+         * @param listener removal listener
+         * @return this builder
+         */
+        public Builder<K,V> removalListener(RemovalListener<? super K, ? super V> listener) {
+            return removalListener(listener, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * Notify the listener about removed, expired and replaced values.
+         * Notifications queued in the meantime are delivered by one task of the executor, never holding the cache lock.
+         * Exceptions thrown by the listener are ignored, handle them in the listener to not lose them.
+         * @param listener removal listener
+         * @param executor executor notifications are delivered by
+         * @return this builder
+         */
+        public Builder<K,V> removalListener(RemovalListener<? super K, ? super V> listener, Executor executor) {
+            if (listener == null) {
+                throw new IllegalArgumentException("Removal listener cannot be null.");
+            }
+            if (executor == null) {
+                throw new IllegalArgumentException("Executor cannot be null.");
+            }
+            this.removalListener = listener;
+            this.removalExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Write values put and keys removed to a backing store. Writes are synchronous, unless the writer queues them
+         * like {@link WriteBehindWriter}.
+         * @param writer writer of the backing store
+         * @return this builder
+         */
+        public Builder<K,V> writer(CacheWriter<K,V> writer) {
+            if (writer == null) {
+                throw new IllegalArgumentException("Writer cannot be null.");
+            }
+            this.writer = writer;
+            return this;
+        }
+
+        /**
+         * Load missing values of concurrent fetches of single keys by one call of the bulk loader.
+         * Suppliers passed to fetches load only keys the bulk loader did not return.
+         * The entry stays locked for the load during the batch window too, other fetches of the key wait for it
+         * up to {@link #loadWaitTimeout(long, TimeUnit)}.
+         * @param loader batching loader, it can be shared by several caches
+         * @return this builder
+         */
+        public Builder<K,V> batchLoader(BatchingLoader<K,V> loader) {
+            if (loader == null) {
+                throw new IllegalArgumentException("Loader cannot be null.");
+            }
+            this.batchLoader = loader;
+            return this;
+        }
+
+        /**
+         * Limit time a fetch waits for a value loaded by other thread. By default it waits as long as the loading takes.
+         * @param duration maximum wait time
+         * @param unit unit of <code>duration</code>
+         * @return this builder
+         * @see CacheLoadTimeoutException
+         */
+        public Builder<K,V> loadWaitTimeout(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("Duration cannot be negative.");
+            }
+            this.loadWaitTimeoutMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * @return <code>true</code> if caches are sized by weight
+         */
+        boolean hasWeigher() {
+            return weigher != null;
+        }
+
+        /**
+         * Build a cache sized by {@link CacheManager}.
+         * @param capacity maximum size, maximum weight if a weigher is set
+         * @throws IllegalStateException if size, weight or eviction policy is set
+         */
+        SimpleCache<K,V> buildRegion(long capacity) {
+            if (cacheSize >= 0 || maximumWeight >= 0 || evictionPolicy != null) {
+                throw new IllegalStateException("Size of a region is set by cache manager.");
+            }
+            if (weigher != null) {
+                maximumWeight = capacity;
+            } else {
+                cacheSize = (int) Math.min(capacity, Integer.MAX_VALUE);
+            }
+            try {
+                return build();
+            } finally {
+                cacheSize = -1;
+                maximumWeight = -1;
+            }
+        }
+
+        /**
+         * @return new cache
+         * @throws IllegalStateException if ttl (expiry or time to idle) or size (weight or eviction policy) is not set
+         */
+        public SimpleCache<K,V> build() {
+            int expirations = (timeoutMillis >= 0 ? 1 : 0) + (accessMillis >= 0 ? 1 : 0) + (expiry != null ? 1 : 0);
+            if (expirations == 0) {
+                throw new IllegalStateException("Cache ttl not set.");
+            }
+            if (expirations > 1) {
+                throw new IllegalStateException("Only one of ttl, time to idle and expiry can be set.");
+            }
+            int limits = (cacheSize >= 0 ? 1 : 0) + (maximumWeight >= 0 ? 1 : 0) + (evictionPolicy != null ? 1 : 0);
+            if (limits == 0) {
+                throw new IllegalStateException("Cache size not set.");
+            }
+            if (limits > 1) {
+                throw new IllegalStateException("Only one of maximum size, maximum weight and eviction policy can be set.");
+            }
+            if (maximumWeight >= 0 && weigher == null) {
+                throw new IllegalStateException("Maximum weight requires a weigher.");
+            }
+            if (cacheSize >= 0 && weigher != null) {
+                throw new IllegalStateException("Weigher requires maximum weight instead of maximum size.");
+            }
+            if (Math.max(timeoutMillis, accessMillis) >= 0 && refreshMillis >= Math.max(timeoutMillis, accessMillis)) {
+                throw new IllegalStateException("Refresh time must be shorter then ttl.");
+            }
+            return new SimpleCache<>(this);
+        }
+    }
+
+}
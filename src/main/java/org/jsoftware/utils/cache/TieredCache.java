@@ -0,0 +1,244 @@
+package org.jsoftware.utils.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Two level cache - entries evicted from {@link SimpleCache} are moved to a memory-mapped file
+ * and moved back when they are accessed again.
+ * <p>Entries keep their ttl when moved between levels. Evicted entries are written to the file by the thread
+ * that caused the eviction, after the cache lock is released. Writes, removals and moves between levels
+ * hold the lock of the file, so an evicted value never overwrites a newer one or comes back after removal.</p>
+ * @author m-szalik
+ * @see Serializer
+ */
+public class TieredCache<K,V> implements Cache<K,V>, Closeable {
+    private final SimpleCache<K,V> heap;
+    private final MappedFileStore<K> disk;
+    private final Serializer<V> serializer;
+    private final Queue<Spill<K,V>> spills = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param timeoutMillis cache ttl im milliseconds
+     * @param cacheSize number of entries kept on heap
+     * @param file file evicted entries are stored in, its content is removed
+     * @param fileCapacity maximum size of the file in bytes
+     * @param serializer values serializer
+     * @throws IOException if file cannot be opened
+     */
+    public TieredCache(long timeoutMillis, int cacheSize, Path file, int fileCapacity, Serializer<V> serializer) throws IOException {
+        if (serializer == null) {
+            throw new IllegalArgumentException("Serializer cannot be null.");
+        }
+        this.serializer = serializer;
+        this.heap = new SimpleCache<K,V>(timeoutMillis, cacheSize) {
+            @Override
+            protected void evicted(K key, V value, long timeout) {
+                spills.add(new Spill<>(key, value, timeout));
+            }
+
+            @Override
+            protected Instant now() {
+                return TieredCache.this.now();
+            }
+        };
+        this.disk = new MappedFileStore<>(file, fileCapacity);
+    }
+
+    @Override
+    public int size() {
+        return heap.size() + disk.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return heap.isEmpty() && disk.size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return heap.containsKey(key) || disk.containsKey(key, millis());
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return values().contains(value);
+    }
+
+    @Override
+    public V get(Object key) {
+        V value = heap.get(key);
+        if (value == null) {
+            value = promote(key);
+        }
+        spill();
+        return value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        V rv;
+        synchronized (disk) {
+            disk.remove(key);
+            rv = heap.put(key, value);
+        }
+        spill();
+        return rv;
+    }
+
+    @Override
+    public V put(K key, V value, long ttl, TimeUnit unit) {
+        V rv;
+        synchronized (disk) {
+            disk.remove(key);
+            rv = heap.put(key, value, ttl, unit);
+        }
+        spill();
+        return rv;
+    }
+
+    @Override
+    public V remove(Object key) {
+        V value;
+        MappedFileStore.Record record;
+        synchronized (disk) {
+            spill(); // value of the key may be evicted, but not written yet
+            value = heap.remove(key);
+            record = disk.take(key, millis());
+        }
+        if (value == null && record != null) {
+            value = serializer.deserialize(record.data);
+        }
+        return value;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        m.forEach(this::put);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (disk) {
+            heap.clear();
+            spills.clear();
+            disk.clear();
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> keys = new HashSet<>(heap.keySet());
+        disk.forEach(millis(), (k, r) -> keys.add(k));
+        return keys;
+    }
+
+    @Override
+    public Collection<V> values() {
+        List<V> values = new ArrayList<>(heap.values());
+        disk.forEach(millis(), (k, r) -> values.add(serializer.deserialize(r.data)));
+        return values;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K,V>> entries = new HashSet<>(heap.entrySet());
+        disk.forEach(millis(), (k, r) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(k, serializer.deserialize(r.data))));
+        return entries;
+    }
+
+    @Override
+    public V fetch(K key, Supplier<V> supplier) {
+        if (! heap.containsKey(key)) {
+            promote(key);
+        }
+        V value = heap.fetch(key, supplier);
+        spill();
+        return value;
+    }
+
+    /**
+     * @return statistics of the heap level
+     */
+    @Override
+    public CacheStats stats() {
+        return heap.stats();
+    }
+
+    /**
+     * Close the file, the cache cannot be used after it is closed.
+     * @throws IOException if file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        disk.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private V promote(Object key) {
+        synchronized (disk) {
+            long now = millis();
+            MappedFileStore.Record record = disk.take(key, now);
+            if (record == null) {
+                return null;
+            }
+            V value = serializer.deserialize(record.data);
+            heap.put((K) key, value, record.timeout - now, TimeUnit.MILLISECONDS);
+            return value;
+        }
+    }
+
+    /**
+     * Write evicted entries to the file, in order of their eviction.
+     */
+    private void spill() {
+        if (spills.isEmpty()) {
+            return;
+        }
+        synchronized (disk) {
+            Spill<K,V> s;
+            while ((s = spills.poll()) != null) {
+                long now = millis();
+                if (s.timeout > now && s.value != null && ! heap.containsKey(s.key)) {
+                    disk.write(s.key, serializer.serialize(s.value), s.timeout, now);
+                }
+            }
+        }
+    }
+
+    private long millis() {
+        return now().toEpochMilli();
+    }
+
+    protected Instant now() {
+        return Instant.now();
+    }
+
+
+
+    private static final class Spill<K,V> {
+        private final K key;
+        private final V value;
+        private final long timeout;
+
+        private Spill(K key, V value, long timeout) {
+            this.key = key;
+            this.value = value;
+            this.timeout = timeout;
+        }
+    }
+
+}
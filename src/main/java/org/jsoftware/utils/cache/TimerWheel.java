@@ -0,0 +1,147 @@
+package org.jsoftware.utils.cache;
+
+import java.util.function.Predicate;
+
+/**
+ * Hierarchical timing wheel of entries deadlines.
+ * <p>Levels have buckets of about 1 second, 1 minute, 1 hour and 18 hours, deadlines further then 12 days go to an overflow bucket.
+ * Scheduling and removing a node is O(1), advancing the wheel visits only buckets that elapsed since previous advance,
+ * nodes from upper levels cascade down as their deadline gets closer.</p>
+ * <p>This class is not thread-safe.</p>
+ * @param <K> key type
+ * @param <E> entry type
+ * @author m-szalik
+ */
+final class TimerWheel<K,E> {
+    private static final long[] SPANS = { 1L << 10, 1L << 16, 1L << 22, 1L << 26, 1L << 30, 1L << 30 };
+    private static final int[] BUCKETS = { 64, 64, 16, 16, 1 };
+    private final Node<K,E>[][] wheel;
+    private long time;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimerWheel(long nowMillis) {
+        this.time = nowMillis;
+        this.wheel = new Node[BUCKETS.length][];
+        for(int i=0; i<BUCKETS.length; i++) {
+            wheel[i] = new Node[BUCKETS[i]];
+            for(int j=0; j<BUCKETS[i]; j++) {
+                wheel[i][j] = new Node<>(null, null, 0);
+            }
+        }
+    }
+
+    /**
+     * @param key key of an entry
+     * @param entry the entry
+     * @param deadline entry's deadline in milliseconds
+     * @return scheduled node
+     */
+    Node<K,E> schedule(K key, E entry, long deadline) {
+        Node<K,E> node = new Node<>(key, entry, deadline);
+        link(findBucket(deadline), node);
+        return node;
+    }
+
+    /**
+     * Remove node from the wheel
+     * @param node node to remove, ignored if <code>null</code> or already removed
+     */
+    void deschedule(Node<K,E> node) {
+        if (node != null && node.next != null) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.next = null;
+            node.prev = null;
+        }
+    }
+
+    /**
+     * Advance wheel to <code>nowMillis</code>.
+     * @param nowMillis current time
+     * @param evictor called for each node with deadline passed, returns <code>true</code> if node has been evicted
+     *                or <code>false</code> after changing its deadline to keep it in the wheel
+     */
+    void advance(long nowMillis, Predicate<Node<K,E>> evictor) {
+        long previous = time;
+        time = nowMillis;
+        for(int i=0; i<BUCKETS.length; i++) {
+            int shift = Long.numberOfTrailingZeros(SPANS[i]);
+            long previousTicks = previous >>> shift;
+            long delta = (nowMillis >>> shift) - previousTicks;
+            if (delta <= 0) {
+                break;
+            }
+            expire(i, previousTicks, delta, evictor);
+        }
+    }
+
+    /**
+     * Remove all nodes
+     */
+    void clear() {
+        for(Node<K,E>[] buckets : wheel) {
+            for(Node<K,E> sentinel : buckets) {
+                sentinel.next = sentinel;
+                sentinel.prev = sentinel;
+            }
+        }
+    }
+
+    private void expire(int level, long previousTicks, long delta, Predicate<Node<K,E>> evictor) {
+        Node<K,E>[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(1 + delta, buckets.length);
+        int start = (int) (previousTicks & mask);
+        for(int i=start; i<start + steps; i++) {
+            Node<K,E> sentinel = buckets[i & mask];
+            Node<K,E> node = sentinel.next;
+            sentinel.next = sentinel;
+            sentinel.prev = sentinel;
+            while (node != sentinel) {
+                Node<K,E> next = node.next;
+                node.next = null;
+                node.prev = null;
+                if (node.deadline > time || ! evictor.test(node)) {
+                    link(findBucket(node.deadline), node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    private Node<K,E> findBucket(long deadline) {
+        long duration = deadline - time;
+        for(int i=0; i<BUCKETS.length - 1; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = deadline >>> Long.numberOfTrailingZeros(SPANS[i]);
+                return wheel[i][(int) (ticks & (BUCKETS[i] - 1))];
+            }
+        }
+        return wheel[BUCKETS.length - 1][0];
+    }
+
+    private static <K,E> void link(Node<K,E> sentinel, Node<K,E> node) {
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+
+
+    static final class Node<K,E> {
+        final K key;
+        final E entry;
+        long deadline;
+        private Node<K,E> prev, next;
+
+        private Node(K key, E entry, long deadline) {
+            this.key = key;
+            this.entry = entry;
+            this.deadline = deadline;
+            this.prev = this;
+            this.next = this;
+        }
+    }
+
+}
@@ -0,0 +1,15 @@
+package org.jsoftware.utils.cache;
+
+/**
+ * Soft or weak reference to a value of {@link CacheEntry}.
+ * @param <K> key type
+ * @param <V> value type
+ * @author m-szalik
+ */
+interface ValueReference<K,V> {
+
+    V get();
+
+    CacheEntry<K,V> getEntry();
+
+}
@@ -0,0 +1,21 @@
+package org.jsoftware.utils.cache;
+
+/**
+ * Calculates weight of cache entries, used to limit cache by total weight instead of number of entries.
+ * @param <K> key type
+ * @param <V> value type
+ * @author m-szalik
+ * @see SimpleCache.Builder#maximumWeight(long)
+ * @see SimpleCache.Builder#weigher(Weigher)
+ */
+@FunctionalInterface
+public interface Weigher<K,V> {
+
+    /**
+     * @param key cache key
+     * @param value cache value, never <code>null</code>
+     * @return weight of the entry (for instance its size in bytes), cannot be negative
+     */
+    int weigh(K key, V value);
+
+}
@@ -0,0 +1,215 @@
+package org.jsoftware.utils.cache;
+
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/**
+ * W-TinyLFU eviction, see {@link EvictionPolicy#windowTinyLfu(long)}.
+ * <p>1% of maximum weight is the window LRU, the rest is segmented LRU with 80% of it for protected entries
+ * (entries accessed again while in probation).</p>
+ * @author m-szalik
+ */
+final class WindowTinyLfuPolicy<K> implements EvictionPolicy<K> {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int[] VICTIM_QUEUES = { PROBATION, PROTECTED, WINDOW };
+    private static final long INITIAL_SKETCH_SIZE = 1024;
+    private final HashMap<K,Node<K>> nodes;
+    private final FrequencySketch sketch;
+    private final Node<K>[] queues;
+    private final long[] sizes;
+    private final long maximum;
+    private final long maximumWindow;
+    private final long maximumProtected;
+
+    WindowTinyLfuPolicy(long maximumWeight) {
+        this(maximumWeight, Math.min(maximumWeight, INITIAL_SKETCH_SIZE));
+    }
+
+    /**
+     * @param maximumWeight maximum total weight of entries
+     * @param expectedEntries initial size of the frequency sketch, it grows with number of entries
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    WindowTinyLfuPolicy(long maximumWeight, long expectedEntries) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be greater then zero.");
+        }
+        if (expectedEntries <= 0) {
+            throw new IllegalArgumentException("Expected entries must be greater then zero.");
+        }
+        this.maximum = maximumWeight;
+        this.maximumWindow = Math.max(1, maximum / 100);
+        this.maximumProtected = (long) ((maximum - maximumWindow) * 0.8);
+        this.nodes = new HashMap<>();
+        this.sketch = new FrequencySketch(expectedEntries); // never sized by weight, it may be a number of bytes
+        this.queues = new Node[3];
+        this.sizes = new long[3];
+        for(int i=0; i<queues.length; i++) {
+            queues[i] = new Node<>(null, 0);
+            queues[i].prev = queues[i];
+            queues[i].next = queues[i];
+        }
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        sketch.increment(key);
+        Node<K> node = nodes.get(key);
+        if (node == null) {
+            return;
+        }
+        unlink(node);
+        if (node.queue == PROBATION) {
+            linkLast(PROTECTED, node);
+            demoteProtected();
+        } else {
+            linkLast(node.queue, node);
+        }
+    }
+
+    @Override
+    public void recordInsert(K key, int weight, Consumer<? super K> evictor) {
+        sketch.increment(key);
+        if (weight > maximum) { // would flush the whole cache
+            evictor.accept(key);
+            return;
+        }
+        Node<K> node = new Node<>(key, weight);
+        nodes.put(key, node);
+        sketch.ensureCapacity(nodes.size());
+        linkLast(WINDOW, node);
+        evict(evictor);
+    }
+
+    @Override
+    public void recordUpdate(K key, int weight, Consumer<? super K> evictor) {
+        Node<K> node = nodes.get(key);
+        if (node == null) {
+            recordInsert(key, weight, evictor);
+        } else if (weight > maximum) { // would flush the whole cache
+            remove(node, evictor);
+        } else {
+            sizes[node.queue] += weight - node.weight;
+            node.weight = weight;
+            if (node.queue == PROTECTED) {
+                demoteProtected();
+            }
+            evict(evictor);
+        }
+    }
+
+    private void demoteProtected() {
+        while (sizes[PROTECTED] > maximumProtected) {
+            Node<K> demoted = queues[PROTECTED].next;
+            unlink(demoted);
+            linkLast(PROBATION, demoted);
+        }
+    }
+
+    private void evict(Consumer<? super K> evictor) {
+        Node<K> candidate = null;
+        while (sizes[WINDOW] > maximumWindow) {
+            candidate = queues[WINDOW].next;
+            unlink(candidate);
+            linkLast(PROBATION, candidate);
+        }
+        evict(candidate, evictor);
+    }
+
+    private void evict(Node<K> candidate, Consumer<? super K> evictor) {
+        while (sizes[WINDOW] + sizes[PROBATION] + sizes[PROTECTED] > maximum) {
+            Node<K> victim = victim(candidate);
+            if (victim == null) { // candidate is the only entry left
+                remove(candidate, evictor);
+                candidate = null;
+            } else if (candidate != null && candidate.queue == PROBATION) {
+                if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                    remove(victim, evictor);
+                } else {
+                    remove(candidate, evictor);
+                    candidate = null;
+                }
+            } else {
+                remove(victim, evictor);
+            }
+        }
+    }
+
+    private void remove(Node<K> node, Consumer<? super K> evictor) {
+        unlink(node);
+        nodes.remove(node.key);
+        evictor.accept(node.key);
+    }
+
+    /**
+     * @param candidate entry admitted from the window, it is never the victim, so it is compared with the next one
+     * @return least recently used entry of probation, protected or window queue, <code>null</code> if there is none but candidate
+     */
+    private Node<K> victim(Node<K> candidate) {
+        for(int queue : VICTIM_QUEUES) {
+            Node<K> node = queues[queue].next;
+            if (node == candidate) {
+                node = node.next;
+            }
+            if (node != queues[queue]) {
+                return node;
+            }
+        }
+        if (candidate == null) {
+            throw new IllegalStateException("No entries to evict.");
+        }
+        return null;
+    }
+
+    @Override
+    public void recordRemoval(K key) {
+        Node<K> node = nodes.remove(key);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        for(int i=0; i<queues.length; i++) {
+            queues[i].prev = queues[i];
+            queues[i].next = queues[i];
+            sizes[i] = 0;
+        }
+    }
+
+    private void linkLast(int queue, Node<K> node) {
+        Node<K> sentinel = queues[queue];
+        node.queue = queue;
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+        sizes[queue] += node.weight;
+    }
+
+    private void unlink(Node<K> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        sizes[node.queue] -= node.weight;
+    }
+
+
+
+    private static final class Node<K> {
+        private final K key;
+        private int weight;
+        private int queue;
+        private Node<K> prev, next;
+
+        private Node(K key, int weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+}
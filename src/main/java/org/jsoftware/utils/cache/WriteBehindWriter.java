@@ -0,0 +1,188 @@
+package org.jsoftware.utils.cache;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writer queuing writes and deletes and passing them to other writer in batches, by the scheduler shared by caches.
+ * <p>Only the last write or delete of a key is queued, so several updates of the same key within the flush interval
+ * are written once. When the queue is full the thread that adds to it flushes the queue.</p>
+ * <p>Operations of a failed flush are queued again, unless there are newer operations of their keys,
+ * and retried by next flush. Writes and deletes never fail because of a flush - once an operation is queued
+ * the cache is modified too, failures of flushes not called explicitly are passed to {@link #flushFailed(RuntimeException)}.</p>
+ * <pre>
+ * WriteBehindWriter&lt;String,Product&gt; writer = new WriteBehindWriter&lt;&gt;(databaseWriter, 10000, 1, TimeUnit.SECONDS);
+ * SimpleCache&lt;String,Product&gt; cache = SimpleCache.&lt;String,Product&gt;builder().writer(writer)...build();
+ * </pre>
+ * @param <K> key type
+ * @param <V> value type
+ * @author m-szalik
+ */
+public class WriteBehindWriter<K,V> implements CacheWriter<K,V>, Closeable {
+    private static final Object DELETE = new Object();
+    private final CacheWriter<K,V> writer;
+    private final int maxPending;
+    private final Map<K,Object> pending = new LinkedHashMap<>(); // value or DELETE, guarded by itself
+    private final Lock flushLock = new ReentrantLock(); // batches are written in order
+    private final ScheduledFuture<?> flushTask;
+
+    /**
+     * @param writer writer of batches
+     * @param maxPending maximum number of queued keys
+     * @param flushInterval time between flushes
+     * @param unit unit of <code>flushInterval</code>
+     */
+    public WriteBehindWriter(CacheWriter<K,V> writer, int maxPending, long flushInterval, TimeUnit unit) {
+        if (writer == null) {
+            throw new IllegalArgumentException("Writer cannot be null.");
+        }
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("Maximum pending must be greater then zero.");
+        }
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("Flush interval must be greater then zero.");
+        }
+        this.writer = writer;
+        this.maxPending = maxPending;
+        this.flushTask = FlushTask.schedule(this, flushInterval, unit);
+    }
+
+    @Override
+    public void write(K key, V value) {
+        enqueue(key, value);
+    }
+
+    @Override
+    public void delete(K key) {
+        enqueue(key, DELETE);
+    }
+
+    /**
+     * @return number of queued keys
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Write queued operations now.
+     * @throws RuntimeException thrown by the writer, operations are queued again then
+     */
+    @SuppressWarnings("unchecked")
+    public void flush() {
+        flushLock.lock();
+        try {
+            Map<K,Object> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new LinkedHashMap<>(pending);
+                pending.clear();
+            }
+            Map<K,V> writes = new LinkedHashMap<>();
+            List<K> deletes = new ArrayList<>();
+            batch.forEach((k, op) -> {
+                if (op == DELETE) {
+                    deletes.add(k);
+                } else {
+                    writes.put(k, (V) op);
+                }
+            });
+            try {
+                if (! writes.isEmpty()) {
+                    writer.writeAll(writes);
+                }
+                if (! deletes.isEmpty()) {
+                    writer.deleteAll(deletes);
+                }
+            } catch (RuntimeException | Error e) {
+                synchronized (pending) {
+                    batch.forEach(pending::putIfAbsent);
+                }
+                throw e;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Stop periodic flushes and write queued operations.
+     */
+    @Override
+    public void close() {
+        flushTask.cancel(false);
+        flush();
+    }
+
+    /**
+     * Called when a periodic flush or a flush of full queue fails, operations are queued again then.
+     * @param e exception thrown by the writer
+     */
+    protected void flushFailed(RuntimeException e) {
+    }
+
+    private void enqueue(K key, Object op) {
+        boolean full;
+        synchronized (pending) {
+            pending.remove(key); // keep order of last operations
+            pending.put(key, op);
+            full = pending.size() >= maxPending;
+        }
+        if (full) {
+            flushQuietly();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            flushFailed(e); // queued again and retried by next flush
+        }
+    }
+
+
+
+    /**
+     * Holds the writer weakly, so a writer that is not closed can be garbage collected.
+     */
+    private static final class FlushTask implements Runnable {
+        private final WeakReference<WriteBehindWriter<?,?>> writerRef;
+        private volatile ScheduledFuture<?> future;
+
+        private FlushTask(WriteBehindWriter<?,?> writer) {
+            this.writerRef = new WeakReference<>(writer);
+        }
+
+        static ScheduledFuture<?> schedule(WriteBehindWriter<?,?> writer, long period, TimeUnit unit) {
+            FlushTask task = new FlushTask(writer);
+            task.future = CacheThreads.scheduler().scheduleWithFixedDelay(task, period, period, unit);
+            return task.future;
+        }
+
+        @Override
+        public void run() {
+            WriteBehindWriter<?,?> writer = writerRef.get();
+            if (writer == null) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+            } else {
+                writer.flushQuietly();
+            }
+        }
+    }
+
+}
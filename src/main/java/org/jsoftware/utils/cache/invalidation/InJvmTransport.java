@@ -0,0 +1,56 @@
+package org.jsoftware.utils.cache.invalidation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Transport between nodes of one JVM, for instance caches of different class loaders or tests.
+ * Messages are delivered to other transports of the same {@link Group} by the sending thread.
+ * @author m-szalik
+ */
+public class InJvmTransport implements InvalidationTransport {
+    private final Group group;
+    private volatile Consumer<byte[]> receiver;
+
+    /**
+     * @param group transports messages are delivered to
+     */
+    public InJvmTransport(Group group) {
+        if (group == null) {
+            throw new IllegalArgumentException("Group cannot be null.");
+        }
+        this.group = group;
+        group.members.add(this);
+    }
+
+    @Override
+    public void send(byte[] message) {
+        for(InJvmTransport member : group.members) {
+            Consumer<byte[]> r = member.receiver;
+            if (member != this && r != null) {
+                r.accept(message.clone());
+            }
+        }
+    }
+
+    @Override
+    public void listen(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public void close() {
+        group.members.remove(this);
+    }
+
+
+
+    /**
+     * Transports connected with each other.
+     */
+    public static final class Group {
+        private final List<InJvmTransport> members = new CopyOnWriteArrayList<>();
+    }
+
+}
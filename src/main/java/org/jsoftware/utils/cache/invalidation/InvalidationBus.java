@@ -0,0 +1,262 @@
+package org.jsoftware.utils.cache.invalidation;
+
+import org.jsoftware.utils.cache.Serializer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps caches of several nodes coherent - keys invalidated on one node are removed from caches of other nodes.
+ * <p>Invalidations are removed from the local cache immediately and sent to other nodes in batches,
+ * at most one batch per <code>batchDelay</code>. A key invalidated several times within the delay is sent once,
+ * invalidation of all keys replaces pending invalidations of single keys.</p>
+ * <p>Invalidations that cannot be sent are dropped, entries of other nodes are removed by their ttl then.
+ * Batches are sent by a scheduler passed to the constructor, or by one daemon thread shared by all buses.</p>
+ * <pre>
+ * InvalidationBus&lt;String&gt; bus = new InvalidationBus&lt;&gt;(cache, transport, keySerializer, 50, TimeUnit.MILLISECONDS);
+ * db.update(product);
+ * bus.invalidate(product.getId());
+ * </pre>
+ * @param <K> key type
+ * @author m-szalik
+ * @see InvalidationTransport
+ */
+public class InvalidationBus<K> implements Closeable {
+    private static final byte KEYS = 0;
+    private static final byte ALL = 1;
+    private static final int HEADER_SIZE = Long.BYTES + 1 + Integer.BYTES;
+    private final Map<K,?> cache;
+    private final InvalidationTransport transport;
+    private final Serializer<K> keySerializer;
+    private final long batchDelayMillis;
+    private final int maxMessageSize;
+    private final long nodeId = ThreadLocalRandom.current().nextLong();
+    private final Set<K> pendingKeys = new LinkedHashSet<>(); // guarded by this
+    private boolean pendingAll; // guarded by this
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> pendingFlush; // guarded by this
+
+    /**
+     * @param cache local cache
+     * @param transport transport to other nodes
+     * @param keySerializer keys serializer
+     * @param batchDelay time invalidations are collected before they are sent
+     * @param unit unit of <code>batchDelay</code>
+     */
+    public InvalidationBus(Map<K,?> cache, InvalidationTransport transport, Serializer<K> keySerializer, long batchDelay, TimeUnit unit) {
+        this(cache, transport, keySerializer, batchDelay, unit, UdpTransport.MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * @param cache local cache
+     * @param transport transport to other nodes
+     * @param keySerializer keys serializer
+     * @param batchDelay time invalidations are collected before they are sent
+     * @param unit unit of <code>batchDelay</code>
+     * @param maxMessageSize maximum size of a message in bytes, larger batches are split
+     */
+    public InvalidationBus(Map<K,?> cache, InvalidationTransport transport, Serializer<K> keySerializer, long batchDelay, TimeUnit unit, int maxMessageSize) {
+        this(cache, transport, keySerializer, batchDelay, unit, maxMessageSize, SchedulerHolder.SCHEDULER);
+    }
+
+    /**
+     * @param cache local cache
+     * @param transport transport to other nodes
+     * @param keySerializer keys serializer
+     * @param batchDelay time invalidations are collected before they are sent
+     * @param unit unit of <code>batchDelay</code>
+     * @param maxMessageSize maximum size of a message in bytes, larger batches are split
+     * @param scheduler scheduler batches are sent by, it is not shut down when the bus is closed
+     */
+    public InvalidationBus(Map<K,?> cache, InvalidationTransport transport, Serializer<K> keySerializer, long batchDelay, TimeUnit unit, int maxMessageSize,
+                           ScheduledExecutorService scheduler) {
+        if (cache == null) {
+            throw new IllegalArgumentException("Cache cannot be null.");
+        }
+        if (transport == null) {
+            throw new IllegalArgumentException("Transport cannot be null.");
+        }
+        if (keySerializer == null) {
+            throw new IllegalArgumentException("Serializer cannot be null.");
+        }
+        if (batchDelay < 0) {
+            throw new IllegalArgumentException("Batch delay cannot be negative.");
+        }
+        if (maxMessageSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Maximum message size must be greater then " + HEADER_SIZE + ".");
+        }
+        if (scheduler == null) {
+            throw new IllegalArgumentException("Scheduler cannot be null.");
+        }
+        this.cache = cache;
+        this.transport = transport;
+        this.keySerializer = keySerializer;
+        this.batchDelayMillis = unit.toMillis(batchDelay);
+        this.maxMessageSize = maxMessageSize;
+        this.scheduler = scheduler;
+        transport.listen(this::receive);
+    }
+
+    /**
+     * Remove the key from local cache and from caches of other nodes.
+     * @param key key to invalidate
+     */
+    public void invalidate(K key) {
+        cache.remove(key);
+        synchronized (this) {
+            if (! pendingAll) {
+                pendingKeys.add(key);
+            }
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Remove all entries from local cache and from caches of other nodes.
+     */
+    public void invalidateAll() {
+        cache.clear();
+        synchronized (this) {
+            pendingAll = true;
+            pendingKeys.clear();
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Send pending invalidations now.
+     * @throws IOException if invalidations cannot be sent, they are dropped then,
+     *                     or a key does not fit in a message, other keys are sent then
+     */
+    public void flush() throws IOException {
+        List<K> keys;
+        boolean all;
+        synchronized (this) {
+            if (pendingFlush != null) {
+                pendingFlush.cancel(false);
+                pendingFlush = null;
+            }
+            keys = new ArrayList<>(pendingKeys);
+            all = pendingAll;
+            pendingKeys.clear();
+            pendingAll = false;
+        }
+        if (all) {
+            transport.send(ByteBuffer.allocate(HEADER_SIZE).putLong(nodeId).put(ALL).putInt(0).array());
+        }
+        if (! keys.isEmpty()) {
+            sendKeys(keys);
+        }
+    }
+
+    /**
+     * Send pending invalidations and close the transport.
+     * @throws IOException if invalidations cannot be sent or transport cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush(); // cancels pending flush too
+        } finally {
+            transport.close();
+        }
+    }
+
+    /** Must be called holding this lock. */
+    private void scheduleFlush() {
+        if (pendingFlush == null) {
+            pendingFlush = scheduler.schedule(() -> {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    // dropped, entries of other nodes expire by their ttl
+                }
+            }, batchDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sendKeys(List<K> keys) throws IOException {
+        List<byte[]> batch = new ArrayList<>();
+        int size = HEADER_SIZE;
+        IOException oversized = null;
+        for(K key : keys) {
+            byte[] data = keySerializer.serialize(key);
+            int length = Integer.BYTES + data.length;
+            if (HEADER_SIZE + length > maxMessageSize) {
+                if (oversized == null) {
+                    oversized = new IOException("Key " + key + " does not fit in a message.");
+                } else {
+                    oversized.addSuppressed(new IOException("Key " + key + " does not fit in a message."));
+                }
+                continue; // other keys are sent
+            }
+            if (size + length > maxMessageSize) {
+                send(batch, size);
+                batch.clear();
+                size = HEADER_SIZE;
+            }
+            batch.add(data);
+            size += length;
+        }
+        if (! batch.isEmpty()) {
+            send(batch, size);
+        }
+        if (oversized != null) {
+            throw oversized;
+        }
+    }
+
+    private void send(List<byte[]> keys, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(nodeId).put(KEYS).putInt(keys.size());
+        for(byte[] data : keys) {
+            buffer.putInt(data.length).put(data);
+        }
+        transport.send(buffer.array());
+    }
+
+    private void receive(byte[] message) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(message);
+            if (buffer.getLong() == nodeId) {
+                return; // sent by this node
+            }
+            byte type = buffer.get();
+            int count = buffer.getInt();
+            if (type == ALL) {
+                cache.clear();
+                return;
+            }
+            for(int i=0; i<count; i++) {
+                byte[] data = new byte[buffer.getInt()];
+                buffer.get(data);
+                cache.remove(keySerializer.deserialize(data));
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            // corrupted message, ignored
+        }
+    }
+
+
+
+    private static final class SchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cache-invalidation-bus");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+}
@@ -0,0 +1,27 @@
+package org.jsoftware.utils.cache.invalidation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Delivers invalidation messages between nodes.
+ * <p>A message sent by a node is delivered to other nodes, it may be delivered to the sender too.
+ * Messages may be lost, invalid entries are removed by their ttl then.</p>
+ * @author m-szalik
+ * @see InvalidationBus
+ */
+public interface InvalidationTransport extends Closeable {
+
+    /**
+     * @param message message to deliver to other nodes
+     * @throws IOException if message cannot be sent
+     */
+    void send(byte[] message) throws IOException;
+
+    /**
+     * @param receiver called for each message received from other nodes, by a thread of the transport
+     */
+    void listen(Consumer<byte[]> receiver);
+
+}
@@ -0,0 +1,97 @@
+package org.jsoftware.utils.cache.invalidation;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Transport sending each message as an UDP datagram to all peers, for instance nodes on the same host listening on loopback.
+ * <p>Messages are received by a daemon thread. UDP does not guarantee delivery, lost messages are not resent.</p>
+ * @author m-szalik
+ */
+public class UdpTransport implements InvalidationTransport {
+    /** Maximum size of a message. */
+    public static final int MAX_MESSAGE_SIZE = 65507;
+    private final DatagramSocket socket;
+    private final List<SocketAddress> peers = new CopyOnWriteArrayList<>();
+    private final Thread receiverThread;
+    private volatile Consumer<byte[]> receiver;
+
+    /**
+     * @param bindAddress address to receive messages on, port 0 means any free port
+     * @throws IOException if socket cannot be bound
+     */
+    public UdpTransport(InetSocketAddress bindAddress) throws IOException {
+        this.socket = new DatagramSocket(bindAddress);
+        this.receiverThread = new Thread(this::receive, "cache-invalidation-udp-" + socket.getLocalPort());
+        this.receiverThread.setDaemon(true);
+        this.receiverThread.start();
+    }
+
+    /**
+     * @param peer address of other node's transport
+     * @return this transport
+     */
+    public UdpTransport addPeer(InetSocketAddress peer) {
+        if (peer == null) {
+            throw new IllegalArgumentException("Peer cannot be null.");
+        }
+        peers.add(peer);
+        return this;
+    }
+
+    /**
+     * @return address messages are received on
+     */
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    @Override
+    public void send(byte[] message) throws IOException {
+        if (message.length > MAX_MESSAGE_SIZE) {
+            throw new IOException("Message of " + message.length + " bytes does not fit in a datagram.");
+        }
+        for(SocketAddress peer : peers) {
+            socket.send(new DatagramPacket(message, message.length, peer));
+        }
+    }
+
+    @Override
+    public void listen(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[MAX_MESSAGE_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (! socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+            } catch (IOException e) {
+                continue; // socket closed or datagram lost
+            }
+            Consumer<byte[]> r = receiver;
+            if (r != null) {
+                try {
+                    r.accept(Arrays.copyOfRange(buffer, packet.getOffset(), packet.getOffset() + packet.getLength()));
+                } catch (RuntimeException e) {
+                    // next messages are still received
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,4 @@
+/**
+ * Invalidation of caches of other nodes - keys removed from a cache are removed from caches of the other nodes too.
+ */
+package org.jsoftware.utils.cache.invalidation;
@@ -1,17 +1,29 @@
 package org.jsoftware.utils.collection;
 
+import org.jsoftware.utils.internal.RemovalDispatcher;
+
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * LRU (Least Recently Used) Map that keeps at max <code>capacity</code> number of elements
+ * <p>Compute and merge methods update recently used elements and capacity like <code>put</code>.
+ * Like other methods of the map they are not atomic, the map is not thread-safe - for atomic compute use
+ * {@link org.jsoftware.utils.cache.SimpleCache}, or guard the map by an external lock.</p>
  * @author m-szalik
  */
 public class LRUMap<K,V> extends LinkedHashMap<K,V> {
     private final int capacity;
     private final Queue<Object> keys;
+    private final RemovalDispatcher<K,V,RemovalCause> removals; // null without a listener
 
     /**
      * LRU Map with maximum size of <tt>capacity</tt>
@@ -21,19 +33,80 @@ public class LRUMap<K,V> extends LinkedHashMap<K,V> {
         super();
         this.capacity = capacity;
         this.keys = new LinkedList<>();
+        this.removals = null;
+    }
+
+    /**
+     * LRU Map with maximum size of <tt>capacity</tt> that notifies the listener about evicted, removed and replaced values.
+     * Notifications are delivered by {@link ForkJoinPool#commonPool()}.
+     * @param capacity maximum map's size
+     * @param listener removal listener
+     */
+    public LRUMap(int capacity, RemovalListener<? super K, ? super V> listener) {
+        this(capacity, listener, ForkJoinPool.commonPool());
     }
 
+    /**
+     * LRU Map with maximum size of <tt>capacity</tt> that notifies the listener about evicted, removed and replaced values.
+     * <p>Notifications queued by a modification are delivered by one task of the executor after the modification,
+     * never inside map's critical section. Exceptions thrown by the listener are ignored.</p>
+     * @param capacity maximum map's size
+     * @param listener removal listener
+     * @param executor executor notifications are delivered by, in batches
+     */
+    public LRUMap(int capacity, RemovalListener<? super K, ? super V> listener, Executor executor) {
+        super();
+        if (listener == null) {
+            throw new IllegalArgumentException("Removal listener cannot be null.");
+        }
+        this.capacity = capacity;
+        this.keys = new LinkedList<>();
+        this.removals = new RemovalDispatcher<>(listener::onRemoval, executor);
+    }
+
+    @SuppressWarnings("unchecked")
     private void cleanup() {
+        List<Map.Entry<K,V>> removed = null;
         if (size() > capacity) {
+            removed = new ArrayList<>();
             synchronized (keys) {
                 while (size() > capacity) {
                     Object k = keys.poll();
-                    if (k != null) {
-                        remove(k);
+                    if (k != null && containsKey(k)) {
+                        removed.add(new SimpleImmutableEntry<>((K) k, super.remove(k)));
                     }
                 }
             }
         }
+        if (removed != null) {
+            for(Map.Entry<K,V> e : removed) {
+                evicted(e.getKey(), e.getValue());
+                notifyRemoval(e.getKey(), e.getValue(), RemovalCause.SIZE);
+            }
+        }
+        dispatchRemovals();
+    }
+
+    private void notifyRemoval(K key, V value, RemovalCause cause) {
+        if (removals != null) {
+            removals.enqueue(key, value, cause);
+        }
+    }
+
+    private void dispatchRemovals() {
+        if (removals != null) {
+            removals.dispatch();
+        }
+    }
+
+    /**
+     * Called by the modifying thread after an entry has been removed because the map exceeded its capacity,
+     * whether a removal listener is set or not. It is called outside of map's internal lock,
+     * before the listener is notified about the eviction.
+     * @param key key of removed entry
+     * @param value value of removed entry
+     */
+    protected void evicted(K key, V value) {
     }
 
     private void updateKey(Object key) {
@@ -48,7 +121,11 @@ public class LRUMap<K,V> extends LinkedHashMap<K,V> {
     @Override
     public V put(K key, V value) {
         updateKey(key);
+        boolean replaced = removals != null && containsKey(key);
         V v = super.put(key, value);
+        if (replaced) {
+            notifyRemoval(key, v, RemovalCause.REPLACED);
+        }
         cleanup();
         return v;
     }
@@ -64,10 +141,66 @@ public class LRUMap<K,V> extends LinkedHashMap<K,V> {
 
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
+        Map<K,V> replaced = new LinkedHashMap<>();
         m.keySet().stream().forEach((key) -> {
             updateKey(key);
+            if (removals != null && containsKey(key)) {
+                replaced.put(key, super.get(key));
+            }
         });
         super.putAll(m);
+        replaced.forEach((k, v) -> notifyRemoval(k, v, RemovalCause.REPLACED));
+        cleanup();
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        V v = super.computeIfAbsent(key, mappingFunction);
+        afterCompute(key, null, v);
+        return v;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        V old = super.get(key);
+        if (old == null) {
+            return null;
+        }
+        V v = super.computeIfPresent(key, remappingFunction);
+        afterCompute(key, old, v);
+        return v;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        V old = super.get(key);
+        V v = super.compute(key, remappingFunction);
+        afterCompute(key, old, v);
+        return v;
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        V old = super.get(key);
+        V v = super.merge(key, value, remappingFunction);
+        afterCompute(key, old, v);
+        return v;
+    }
+
+    /**
+     * Update recently used key, unless the function removed the mapping or did not create it.
+     */
+    private void afterCompute(K key, V old, V value) {
+        if (value != null) {
+            updateKey(key);
+        } else if (key != null) {
+            synchronized (keys) {
+                keys.remove(key);
+            }
+        }
+        if (old != null && old != value) {
+            notifyRemoval(key, old, value == null ? RemovalCause.EXPLICIT : RemovalCause.REPLACED);
+        }
         cleanup();
     }
 
@@ -98,14 +231,57 @@ public class LRUMap<K,V> extends LinkedHashMap<K,V> {
 
     @Override
     public final void clear() {
+        if (removals != null) {
+            forEach((k, v) -> notifyRemoval(k, v, RemovalCause.EXPLICIT)); // delivered after the map is cleared
+        }
         super.clear();
         synchronized (keys) {
             keys.clear();
         }
+        dispatchRemovals();
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public final V remove(Object key) {
-        return super.remove(key);
+        if (removals == null || ! containsKey(key)) {
+            return super.remove(key);
+        }
+        V v = super.remove(key);
+        notifyRemoval((K) key, v, RemovalCause.EXPLICIT);
+        dispatchRemovals();
+        return v;
+    }
+
+
+
+    /**
+     * Notified about entries removed from {@link LRUMap}.
+     * @param <K> key type
+     * @param <V> value type
+     */
+    @FunctionalInterface
+    public interface RemovalListener<K,V> {
+
+        /**
+         * @param key key of removed entry
+         * @param value value of removed entry
+         * @param cause reason of removal
+         */
+        void onRemoval(K key, V value, RemovalCause cause);
+    }
+
+
+
+    /**
+     * Reason of removing an entry from {@link LRUMap}.
+     */
+    public enum RemovalCause {
+        /** Entry removed by the user. */
+        EXPLICIT,
+        /** Value replaced by a new one. */
+        REPLACED,
+        /** Entry evicted because the map exceeded its capacity. */
+        SIZE
     }
 }
\ No newline at end of file
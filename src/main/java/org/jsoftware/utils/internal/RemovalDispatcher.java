@@ -0,0 +1,111 @@
+package org.jsoftware.utils.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queues removal notifications and delivers them to a {@link Receiver} in batches.
+ * <p>Notifications are queued by {@link #enqueue(Object, Object, Object)}, which can be called holding a lock.
+ * {@link #dispatch()} called after the lock is released submits one task delivering all queued notifications,
+ * unless such a task is already pending. Exceptions thrown by the receiver are ignored, so one failing notification
+ * does not prevent delivery of the others.</p>
+ * @param <K> key type
+ * @param <V> value type
+ * @param <C> removal cause type
+ * @author m-szalik
+ */
+public final class RemovalDispatcher<K,V,C> implements Runnable {
+    private final Receiver<? super K, ? super V, ? super C> receiver;
+    private final Executor executor;
+    private final Queue<Notification<K,V,C>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * @param receiver receiver notifications are delivered to
+     * @param executor executor notifications are delivered by
+     */
+    public RemovalDispatcher(Receiver<? super K, ? super V, ? super C> receiver, Executor executor) {
+        if (receiver == null) {
+            throw new IllegalArgumentException("Removal listener cannot be null.");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null.");
+        }
+        this.receiver = receiver;
+        this.executor = executor;
+    }
+
+    /**
+     * Queue a notification, it is delivered after next {@link #dispatch()}.
+     * @param key key of removed entry
+     * @param value value of removed entry
+     * @param cause reason of removal
+     */
+    public void enqueue(K key, V value, C cause) {
+        queue.add(new Notification<>(key, value, cause));
+    }
+
+    /**
+     * Submit delivery of queued notifications to the executor, unless it is already submitted.
+     */
+    public void dispatch() {
+        if (! queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false); // delivered by next dispatch
+            }
+        }
+    }
+
+    /**
+     * Deliver queued notifications, called by the executor.
+     */
+    @Override
+    public void run() {
+        try {
+            Notification<K,V,C> n;
+            while ((n = queue.poll()) != null) {
+                try {
+                    receiver.onRemoval(n.key, n.value, n.cause);
+                } catch (RuntimeException e) {
+                    // ignored, other notifications are delivered
+                }
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        dispatch(); // queued after the queue was drained
+    }
+
+
+
+    /**
+     * Receives notifications, the removal listener of a cache or a map.
+     * @param <K> key type
+     * @param <V> value type
+     * @param <C> removal cause type
+     */
+    @FunctionalInterface
+    public interface Receiver<K,V,C> {
+        void onRemoval(K key, V value, C cause);
+    }
+
+
+
+    private static final class Notification<K,V,C> {
+        private final K key;
+        private final V value;
+        private final C cause;
+
+        private Notification(K key, V value, C cause) {
+            this.key = key;
+            this.value = value;
+            this.cause = cause;
+        }
+    }
+
+}
@@ -0,0 +1,4 @@
+/**
+ * Helpers shared by other packages of the library, they are not a part of its API and can change without notice.
+ */
+package org.jsoftware.utils.internal;
@@ -0,0 +1,129 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchingLoaderTest {
+    private final List<Set<Integer>> calls = new ArrayList<>();
+
+    private synchronized Map<Integer,String> loadAll(Set<Integer> keys) {
+        calls.add(new TreeSet<>(keys));
+        Map<Integer,String> map = new HashMap<>();
+        keys.stream().filter(k -> k >= 0).forEach(k -> map.put(k, "v" + k));
+        return map;
+    }
+
+    @Test
+    public void testFullBatch() throws Exception {
+        BatchingLoader<Integer,String> loader = new BatchingLoader<>(this::loadAll, 4, 1, TimeUnit.HOURS);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<String>> futures = new ArrayList<>();
+            for(int i=0; i<8; i++) {
+                int key = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return loader.load(key);
+                }));
+            }
+            start.countDown();
+            for(int i=0; i<8; i++) {
+                assertEquals("v" + i, futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, calls.size());
+        assertEquals(4, calls.get(0).size());
+        assertEquals(4, calls.get(1).size());
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        BatchingLoader<Integer,String> loader = new BatchingLoader<>(this::loadAll, 100, 20, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        assertEquals("v1", loader.load(1));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    public void testSameKey() throws Exception {
+        BatchingLoader<Integer,String> loader = new BatchingLoader<>(this::loadAll, 100, 200, TimeUnit.MILLISECONDS);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> f1 = executor.submit(() -> loader.load(1));
+            Future<String> f2 = executor.submit(() -> loader.load(1));
+            assertEquals("v1", f1.get(10, TimeUnit.SECONDS));
+            assertEquals("v1", f2.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        BatchingLoader<Integer,String> loader = new BatchingLoader<>(this::loadAll, 1, 0, TimeUnit.MILLISECONDS);
+        assertEquals("fallback", loader.load(-1, () -> "fallback"));
+        assertNull(loader.load(-1));
+    }
+
+    @Test
+    public void testLoaderFails() throws Exception {
+        BatchingLoader<Integer,String> loader = new BatchingLoader<>(keys -> {
+            throw new IllegalStateException("database down");
+        }, 1, 0, TimeUnit.MILLISECONDS);
+        try {
+            loader.load(1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("database down", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFetchOfLoadingKeyWaitsForWindow() throws Exception {
+        BatchingLoader<Integer,String> loader = new BatchingLoader<>(this::loadAll, 100, 1, TimeUnit.SECONDS);
+        SimpleCache<Integer,String> cache = SimpleCache.<Integer,String>builder().expireAfterWrite(1, TimeUnit.MINUTES).maximumSize(10)
+                .batchLoader(loader).loadWaitTimeout(20, TimeUnit.MILLISECONDS).build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> leader = executor.submit(() -> cache.fetch(1, () -> "fallback"));
+            Thread.sleep(100); // leader holds the entry during the window
+            try {
+                cache.fetch(1, () -> "fallback");
+                fail();
+            } catch (CacheLoadTimeoutException e) {
+                // expected
+            }
+            assertEquals("v1", leader.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchSize() throws Exception {
+        new BatchingLoader<>(this::loadAll, 0, 1, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -4,43 +4,70 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class CacheEntryTest {
 
     @Test
     public void testEqualsEq() throws Exception {
-        CacheEntry<Integer> cacheEntry1 = new CacheEntry<>();
-        CacheEntry<Integer> cacheEntry2 = new CacheEntry<>();
-        cacheEntry1.updateValue(100, () -> new Integer(4));
-        cacheEntry2.updateValue(500, () -> new Integer(7));
+        CacheEntry<String,Integer> cacheEntry1 = new CacheEntry<>("key");
+        CacheEntry<String,Integer> cacheEntry2 = new CacheEntry<>("key");
+        cacheEntry1.put(0, 100, new Integer(4));
+        cacheEntry2.put(0, 500, new Integer(7));
         assertFalse(cacheEntry1.equals(cacheEntry2));
     }
 
     @Test
     public void testEqualsNotEq() throws Exception {
-        CacheEntry<Integer> cacheEntry1 = new CacheEntry<>();
-        CacheEntry<Integer> cacheEntry2 = new CacheEntry<>();
-        cacheEntry1.updateValue(100, () -> new Integer(12));
-        cacheEntry2.updateValue(500, () -> new Integer(12));
+        CacheEntry<String,Integer> cacheEntry1 = new CacheEntry<>("key");
+        CacheEntry<String,Integer> cacheEntry2 = new CacheEntry<>("key");
+        cacheEntry1.put(0, 100, new Integer(12));
+        cacheEntry2.put(0, 500, new Integer(12));
         assertEquals(cacheEntry1, cacheEntry2);
     }
 
     @Test
     public void testEqualsNull() throws Exception {
-        CacheEntry<Integer> cacheEntry1 = new CacheEntry<>();
-        CacheEntry<Integer> cacheEntry2 = new CacheEntry<>();
-        cacheEntry1.updateValue(100, () -> null);
-        cacheEntry2.updateValue(500, () -> null);
+        CacheEntry<String,Integer> cacheEntry1 = new CacheEntry<>("key");
+        CacheEntry<String,Integer> cacheEntry2 = new CacheEntry<>("key");
+        cacheEntry1.put(0, 100, null);
+        cacheEntry2.put(0, 500, null);
         assertEquals(cacheEntry1, cacheEntry2);
     }
 
     @Test
     public void testHashcode() throws Exception {
-        CacheEntry<Integer> cacheEntry1 = new CacheEntry<>();
-        CacheEntry<Integer> cacheEntry2 = new CacheEntry<>();
-        cacheEntry1.updateValue(100, () -> new Integer(12));
-        cacheEntry2.updateValue(500, () -> new Integer(12));
+        CacheEntry<String,Integer> cacheEntry1 = new CacheEntry<>("key");
+        CacheEntry<String,Integer> cacheEntry2 = new CacheEntry<>("key");
+        cacheEntry1.put(0, 100, new Integer(12));
+        cacheEntry2.put(0, 500, new Integer(12));
         assertEquals(cacheEntry1.hashCode(), cacheEntry2.hashCode());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testLoadLock() throws Exception {
+        CacheEntry<String,Integer> ce = new CacheEntry<>("key");
+        assertTrue(ce.tryLockLoad());
+        assertTrue("reentrant", ce.tryLockLoad());
+        ce.unlockLoad();
+        assertTrue(ce.isLoading());
+        final boolean[] acquired = new boolean[2];
+        Thread t = new Thread(() -> {
+            try {
+                acquired[0] = ce.tryLockLoad(10);
+                acquired[1] = ce.tryLockLoad(5000);
+                ce.unlockLoad();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        ce.unlockLoad();
+        t.join();
+        assertFalse(acquired[0]);
+        assertTrue(acquired[1]);
+        assertFalse(ce.isLoading());
+    }
+
+}
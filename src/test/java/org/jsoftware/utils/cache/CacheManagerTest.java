@@ -0,0 +1,125 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CacheManagerTest {
+    private CacheManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new CacheManager(1000);
+    }
+
+    @Test
+    public void testRegionsDivideCapacityEqually() throws Exception {
+        SimpleCache<String,String> a = manager.createRegion("a", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        assertEquals(Long.valueOf(1000), manager.getRegionSizes().get("a"));
+        manager.createRegion("b", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        manager.createRegion("c", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        Map<String,Long> sizes = manager.getRegionSizes();
+        assertEquals(1000, sizes.values().stream().mapToLong(Long::longValue).sum());
+        assertTrue(sizes.values().stream().allMatch(size -> size >= 333));
+        assertSame(a, manager.getRegion("a"));
+        assertNull(manager.getRegion("x"));
+    }
+
+    @Test
+    public void testShrunkRegionEvicts() throws Exception {
+        SimpleCache<Integer,Integer> a = manager.createRegion("a", SimpleCache.<Integer,Integer>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        for(int i=0; i<1000; i++) {
+            a.put(i, i);
+        }
+        manager.createRegion("b", SimpleCache.<Integer,Integer>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        assertEquals(500, a.size());
+        assertTrue("most recently used kept", a.containsKey(999));
+        assertFalse(a.containsKey(0));
+    }
+
+    @Test
+    public void testRebalanceGivesRoomToRegionWithHits() throws Exception {
+        SimpleCache<Integer,Integer> hot = manager.createRegion("hot", SimpleCache.<Integer,Integer>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        SimpleCache<Integer,Integer> cold = manager.createRegion("cold", SimpleCache.<Integer,Integer>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        for(int round=0; round<5; round++) {
+            for(int i=0; i<100; i++) {
+                hot.fetch(i, () -> 1);
+                cold.fetch(round * 1000 + i, () -> 1);
+            }
+            manager.rebalance();
+        }
+        Map<String,Long> sizes = manager.getRegionSizes();
+        assertEquals(1000, sizes.get("hot") + sizes.get("cold"));
+        assertTrue(sizes.toString(), sizes.get("hot") > 850);
+        assertTrue("minimum share kept " + sizes, sizes.get("cold") >= 100);
+    }
+
+    @Test
+    public void testRemovedRegionCapacityReused() throws Exception {
+        manager.createRegion("a", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        manager.createRegion("b", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        manager.createRegion("c", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        assertTrue(manager.removeRegion("b"));
+        Map<String,Long> sizes = manager.getRegionSizes();
+        assertEquals(1000, sizes.get("a") + sizes.get("c"));
+        assertFalse(manager.removeRegion("b"));
+        assertTrue(manager.removeRegion("a"));
+        assertEquals(Long.valueOf(1000), manager.getRegionSizes().get("c"));
+    }
+
+    @Test
+    public void testMixedWeighers() throws Exception {
+        manager.createRegion("a", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        try {
+            manager.createRegion("b", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES).weigher((k, v) -> v.length()));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(Long.valueOf(1000), manager.getRegionSizes().get("a"));
+        CacheManager weighted = new CacheManager(1000);
+        weighted.createRegion("a", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES).weigher((k, v) -> v.length()));
+        weighted.createRegion("b", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES).weigher((k, v) -> v.length()));
+        try {
+            weighted.createRegion("c", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(2, weighted.getRegionSizes().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicatedRegion() throws Exception {
+        manager.createRegion("a", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        manager.createRegion("a", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRegionSizeSetByBuilder() throws Exception {
+        manager.createRegion("a", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES).maximumSize(10));
+    }
+
+    @Test
+    public void testRebalanceTaskDoesNotHoldManager() throws Exception {
+        CacheManager m = new CacheManager(1000, 10, TimeUnit.MILLISECONDS);
+        m.createRegion("a", SimpleCache.<String,String>builder().expireAfterWrite(1, TimeUnit.MINUTES));
+        WeakReference<CacheManager> ref = new WeakReference<>(m);
+        m = null;
+        for(int i=0; i<50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+}
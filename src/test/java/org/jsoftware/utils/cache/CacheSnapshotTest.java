@@ -0,0 +1,127 @@
+package org.jsoftware.utils.cache;
+
+import org.jsoftware.utils.time.TestClock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CacheSnapshotTest {
+    private static final Serializer<String> STRING_SERIALIZER = new Serializer<String>() {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] data) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+    };
+    private TestClock clock;
+    private File file;
+    private CacheSnapshot<String,String> snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new TestClock();
+        file = File.createTempFile("snapshot", ".bin");
+        snapshot = new CacheSnapshot<>(STRING_SERIALIZER, STRING_SERIALIZER, clock);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        SimpleCache<String,String> cache = newCache();
+        cache.put("a", "A");
+        cache.put("b", "B", 1, TimeUnit.SECONDS);
+        cache.put("c", "C", 3, TimeUnit.SECONDS);
+        clock.plus(2, TimeUnit.SECONDS);
+        assertEquals(2, snapshot.save(cache, file.toPath()));
+
+        SimpleCache<String,String> restored = newCache();
+        assertEquals(2, snapshot.load(restored, file.toPath()));
+        assertEquals("A", restored.get("a"));
+        assertNull(restored.get("b"));
+        assertEquals("C", restored.get("c"));
+        clock.plus(2, TimeUnit.SECONDS);
+        assertNull(restored.get("c"));
+        assertEquals("A", restored.get("a"));
+    }
+
+    @Test
+    public void testLoadSkipsEntriesExpiredAfterSave() throws Exception {
+        SimpleCache<String,String> cache = newCache();
+        cache.put("a", "A", 1, TimeUnit.SECONDS);
+        snapshot.save(cache, file.toPath());
+        clock.plus(2, TimeUnit.SECONDS);
+        SimpleCache<String,String> restored = newCache();
+        assertEquals(0, snapshot.load(restored, file.toPath()));
+        assertEquals(0, restored.size());
+    }
+
+    @Test
+    public void testValuesLargerThenBuffer() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<100000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        SimpleCache<String,String> cache = newCache();
+        for(int i=0; i<50; i++) {
+            cache.put("k" + i, i == 25 ? sb.toString() : "v" + i);
+        }
+        assertEquals(50, snapshot.save(cache, file.toPath()));
+        SimpleCache<String,String> restored = newCache();
+        assertEquals(50, snapshot.load(restored, file.toPath()));
+        assertEquals(sb.toString(), restored.get("k25"));
+        assertEquals("v49", restored.get("k49"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidFile() throws Exception {
+        Files.write(file.toPath(), "not a snapshot".getBytes(StandardCharsets.UTF_8));
+        snapshot.load(newCache(), file.toPath());
+    }
+
+    @Test
+    public void testCorruptedLengths() throws Exception {
+        SimpleCache<String,String> cache = newCache();
+        cache.put("a", "A");
+        snapshot.save(cache, file.toPath());
+        byte[] saved = Files.readAllBytes(file.toPath());
+        int[][] corruptions = { { 5, Integer.MAX_VALUE - 2 }, { 5, 1 << 30 }, { 10, Integer.MAX_VALUE }, { 10, 1 << 30 } }; // key and data lengths
+        for(int[] corruption : corruptions) {
+            byte[] data = saved.clone();
+            ByteBuffer.wrap(data).putInt(corruption[0], corruption[1]);
+            Files.write(file.toPath(), data);
+            try {
+                snapshot.load(newCache(), file.toPath());
+                fail("Length " + corruption[1] + " at " + corruption[0]);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    private SimpleCache<String,String> newCache() {
+        return SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumSize(100)
+                .clock(clock)
+                .build();
+    }
+}
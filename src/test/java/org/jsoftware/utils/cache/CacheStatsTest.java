@@ -0,0 +1,33 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CacheStatsTest {
+
+    @Test
+    public void testRates() throws Exception {
+        CacheStats stats = new CacheStats(3, 1, 2, 2, 400, 5, 6);
+        assertEquals(4, stats.getRequestCount());
+        assertEquals(0.75, stats.getHitRate(), 0.0001);
+        assertEquals(0.25, stats.getMissRate(), 0.0001);
+        assertEquals(100.0, stats.getAverageLoadPenalty(), 0.0001);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        CacheStats stats = CacheStats.empty();
+        assertEquals(1.0, stats.getHitRate(), 0.0001);
+        assertEquals(0.0, stats.getMissRate(), 0.0001);
+        assertEquals(0.0, stats.getAverageLoadPenalty(), 0.0001);
+    }
+
+    @Test
+    public void testMinus() throws Exception {
+        CacheStats a = new CacheStats(10, 20, 30, 40, 50, 60, 70);
+        CacheStats b = new CacheStats(1, 2, 3, 4, 5, 6, 7);
+        assertEquals(new CacheStats(9, 18, 27, 36, 45, 54, 63), a.minus(b));
+        assertEquals(CacheStats.empty(), b.minus(a));
+    }
+}
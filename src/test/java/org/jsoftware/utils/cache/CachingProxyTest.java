@@ -0,0 +1,141 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachingProxyTest {
+    private final AtomicInteger calls = new AtomicInteger();
+    private Service proxy;
+
+    public interface Service {
+        String find(String id);
+        String find(String id, int version);
+        int sum(int[] values);
+        int count();
+        String load(String id) throws IOException;
+        String now();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Service service = new Service() {
+            @Override
+            public String find(String id) {
+                calls.incrementAndGet();
+                return "found " + id;
+            }
+
+            @Override
+            public String find(String id, int version) {
+                calls.incrementAndGet();
+                return "found " + id + "/" + version;
+            }
+
+            @Override
+            public int sum(int[] values) {
+                calls.incrementAndGet();
+                int sum = 0;
+                for(int v : values) {
+                    sum += v;
+                }
+                return sum;
+            }
+
+            @Override
+            public int count() {
+                return calls.incrementAndGet();
+            }
+
+            @Override
+            public String load(String id) throws IOException {
+                calls.incrementAndGet();
+                throw new IOException("cannot load " + id);
+            }
+
+            @Override
+            public String now() {
+                return String.valueOf(calls.incrementAndGet());
+            }
+        };
+        proxy = CachingProxy.create(Service.class, service, () -> new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), 100), m -> ! m.getName().equals("now"));
+    }
+
+    @Test
+    public void testSingleArgument() throws Exception {
+        assertEquals("found a", proxy.find("a"));
+        assertEquals("found a", proxy.find("a"));
+        assertEquals("found b", proxy.find("b"));
+        assertEquals("found null", proxy.find(null));
+        assertEquals("found null", proxy.find(null));
+        assertEquals(3, calls.get());
+        Cache<Object,Object> cache = CachingProxy.getCache(proxy, Service.class.getMethod("find", String.class));
+        assertEquals("found a", cache.get("a"));
+    }
+
+    @Test
+    public void testManyArguments() throws Exception {
+        assertEquals("found a/1", proxy.find("a", 1));
+        assertEquals("found a/1", proxy.find("a", 1));
+        assertEquals("found a/2", proxy.find("a", 2));
+        assertEquals("found a", proxy.find("a"));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testArrayArgument() throws Exception {
+        assertEquals(3, proxy.sum(new int[] {1, 2}));
+        assertEquals(3, proxy.sum(new int[] {1, 2}));
+        assertEquals(6, proxy.sum(new int[] {1, 2, 3}));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testNoArguments() throws Exception {
+        assertEquals(1, proxy.count());
+        assertEquals(1, proxy.count());
+    }
+
+    @Test
+    public void testNotMemoized() throws Exception {
+        assertEquals("1", proxy.now());
+        assertEquals("2", proxy.now());
+        assertNull(CachingProxy.getCache(proxy, Service.class.getMethod("now")));
+    }
+
+    @Test
+    public void testCheckedException() throws Exception {
+        for(int i=0; i<2; i++) {
+            try {
+                proxy.load("x");
+                fail();
+            } catch (IOException e) {
+                assertEquals("cannot load x", e.getMessage());
+            }
+        }
+        assertEquals("exceptions are not cached", 2, calls.get());
+    }
+
+    @Test
+    public void testObjectMethods() throws Exception {
+        assertTrue(proxy.equals(proxy));
+        assertFalse(proxy.equals(new Object()));
+        assertNotNull(proxy.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotInterface() throws Exception {
+        CachingProxy.create(Object.class, new Object(), () -> new SimpleCache<>(1000, 1), m -> true);
+    }
+
+}
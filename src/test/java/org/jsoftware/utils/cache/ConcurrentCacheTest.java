@@ -0,0 +1,307 @@
+package org.jsoftware.utils.cache;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentCacheTest {
+    private Instant now;
+    private ConcurrentCache<Object,Object> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        now = Instant.now();
+        cache = new ConcurrentCache<Object, Object>(TimeUnit.SECONDS.toMillis(1), 3, 1) {
+            @Override
+            protected Instant now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void testMaximumTtlDoesNotOverflow() throws Exception {
+        ConcurrentCache<String,String> c = new ConcurrentCache<>(Long.MAX_VALUE, 10);
+        c.put("a", "A");
+        c.put("b", "B", Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        assertEquals("A", c.get("a"));
+        assertEquals("B", c.get("b"));
+    }
+
+    @Test
+    public void testFetch() throws Exception {
+        Object rv1 = cache.fetch("x", () -> new Object());
+        Object rv2 = cache.fetch("x", () -> new Object());
+        assertEquals(rv1, rv2);
+        now = now.plusSeconds(2);
+        Object rv3 = cache.fetch("x", () -> new Object());
+        assertNotEquals(rv1, rv3);
+    }
+
+    @Test
+    public void testFailedFetchLeavesNoEntry() throws Exception {
+        try {
+            cache.fetch("x", () -> {
+                throw new IllegalStateException("load failed");
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(0, cache.size());
+        assertEquals("X", cache.fetch("x", () -> "X"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullKey() throws Exception {
+        cache.fetch(null, () -> "X");
+    }
+
+    @Test(timeout = 10000)
+    public void testPutDuringFetchIsNotLost() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch put = new CountDownLatch(1);
+        Thread loader = new Thread(() -> cache.fetch("x", () -> {
+            loading.countDown();
+            try {
+                put.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "loaded";
+        }));
+        loader.start();
+        loading.await();
+        cache.put("x", "put");
+        put.countDown();
+        loader.join();
+        assertEquals("put", cache.get("x"));
+    }
+
+    @Test(timeout = 10000)
+    public void testReadsRecordedWhileSegmentIsLocked() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread[] writer = new Thread[1];
+        final AtomicInteger writerCalls = new AtomicInteger();
+        ConcurrentCache<String,String> c = new ConcurrentCache<String,String>(TimeUnit.MINUTES.toMillis(1), 2, 1) {
+            @Override
+            protected Instant now() {
+                if (Thread.currentThread() == writer[0] && writerCalls.incrementAndGet() == 2) { // called holding segment's lock
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.now();
+            }
+        };
+        c.put("a", "A");
+        c.put("b", "B");
+        writer[0] = new Thread(() -> c.put("b", "B2"));
+        writer[0].start();
+        locked.await();
+        assertEquals("A", c.get("a"));
+        release.countDown();
+        writer[0].join();
+        c.put("c", "C");
+        assertTrue(c.containsKey("a"));
+        assertFalse(c.containsKey("b"));
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        assertNull(cache.put("x", 1));
+        assertEquals(1, cache.put("x", 2));
+        assertEquals(2, cache.get("x"));
+        assertEquals(2, cache.remove("x"));
+        assertNull(cache.get("x"));
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        cache.put("key", 1);
+        assertTrue(cache.containsKey("key"));
+        assertTrue(cache.containsValue(1));
+        now = now.plusSeconds(2);
+        assertNull(cache.get("key"));
+        assertFalse(cache.containsKey("key"));
+        assertFalse(cache.containsValue(1));
+        assertTrue(cache.keySet().isEmpty());
+    }
+
+    @Test
+    public void testRemoveEntriesOverSize() throws Exception {
+        for(int i=0; i<5; i++) {
+            cache.put(i, Integer.toBinaryString(i));
+        }
+        Set<Object> keys = cache.keySet();
+        assertEquals(3, keys.size());
+        Assert.assertThat(keys, CoreMatchers.hasItem(4));
+        Assert.assertThat(keys, CoreMatchers.hasItem(3));
+        Assert.assertThat(keys, CoreMatchers.hasItem(2));
+    }
+
+    @Test
+    public void testLRU() throws Exception {
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.put(3, "three");
+        cache.get(1);
+        cache.put(4, "four");
+        Set<Object> keys = cache.keySet();
+        Assert.assertThat(keys, CoreMatchers.hasItem(1));
+        assertFalse(keys.contains(2));
+    }
+
+    @Test
+    public void testPutAllAndViews() throws Exception {
+        Map<Object,Object> map = new HashMap<>();
+        map.put(0, "zero");
+        map.put(1, "one");
+        cache.putAll(map);
+        assertEquals(2, cache.size());
+        assertEquals(map.keySet(), cache.keySet());
+        assertEquals(map.entrySet(), cache.entrySet());
+        assertTrue(cache.values().contains("one"));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSegmentsShareCapacity() throws Exception {
+        ConcurrentCache<Integer,Integer> c = new ConcurrentCache<>(TimeUnit.MINUTES.toMillis(1), 64);
+        for(int i=0; i<1000; i++) {
+            c.put(i, i);
+        }
+        assertTrue(c.size() <= 64);
+        assertTrue(c.size() > 0);
+    }
+
+    @Test
+    public void testConcurrentFetchOfTheSameKeyCallsSupplierOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for(int i=0; i<8; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                cache.fetch("x", () -> {
+                    calls.incrementAndGet();
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return "value";
+                });
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for(Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, calls.get());
+        assertEquals("value", cache.get("x"));
+    }
+
+    @Test
+    public void testConcurrentAccessDifferentKeys() throws Exception {
+        final AtomicBoolean state = new AtomicBoolean(false);
+        Thread t = new Thread(()-> cache.fetch("a", ()-> {
+            state.set(true);
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return Thread.currentThread().getName();
+        }));
+        t.start();
+        while(! state.get()) {
+            Thread.sleep(5);
+        }
+        long ts = System.currentTimeMillis();
+        Object r = cache.fetch("b", () -> Thread.currentThread().getName());
+        assertEquals(Thread.currentThread().getName(), cache.get("b"));
+        ts = System.currentTimeMillis() - ts;
+        t.join();
+        assertEquals(Thread.currentThread().getName(), r);
+        assertTrue("Too long", ts < 500);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() throws Exception {
+        new ConcurrentCache<>(1000, 0);
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        cache.fetch("a", () -> "A");
+        cache.fetch("a", () -> "A");
+        cache.get("b");
+        for(int i=0; i<5; i++) {
+            cache.put(i, i);
+        }
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+        assertEquals(1, stats.getLoadSuccessCount());
+        assertEquals(3, stats.getEvictionCount());
+    }
+
+    @Test
+    public void testFetchAll() throws Exception {
+        cache.put("a", "A");
+        List<Set<Object>> calls = new ArrayList<>();
+        Map<Object,Object> rv = cache.fetchAll(Arrays.asList("a", "b", "c"), keys -> {
+            calls.add(keys);
+            Map<Object,Object> m = new HashMap<>();
+            m.put("b", "B");
+            return m;
+        });
+        assertEquals(1, calls.size());
+        assertEquals(2, calls.get(0).size());
+        assertEquals(2, rv.size());
+        assertEquals("A", rv.get("a"));
+        assertEquals("B", cache.get("b"));
+        assertNull(cache.get("c"));
+    }
+
+    @Test
+    public void testPutWithTtl() throws Exception {
+        assertNull(cache.put("x", "X", 10, TimeUnit.SECONDS));
+        now = now.plusSeconds(5);
+        assertEquals("X", cache.get("x"));
+        now = now.plusSeconds(6);
+        assertNull(cache.get("x"));
+    }
+}
@@ -0,0 +1,139 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EvictionPolicyTest {
+
+    @Test
+    public void testLru() throws Exception {
+        EvictionPolicy<String> policy = EvictionPolicy.lru(2);
+        List<String> evicted = new ArrayList<>();
+        policy.recordInsert("a", 1, evicted::add);
+        policy.recordInsert("b", 1, evicted::add);
+        policy.recordAccess("a");
+        policy.recordInsert("c", 1, evicted::add);
+        assertEquals(1, evicted.size());
+        assertEquals("b", evicted.get(0));
+        policy.recordRemoval("a");
+        policy.recordInsert("d", 1, evicted::add);
+        assertEquals(1, evicted.size());
+        policy.clear();
+        policy.recordInsert("e", 1, evicted::add);
+        policy.recordInsert("f", 1, evicted::add);
+        assertEquals(1, evicted.size());
+    }
+
+    @Test
+    public void testLruByWeight() throws Exception {
+        EvictionPolicy<String> policy = EvictionPolicy.lru(100);
+        List<String> evicted = new ArrayList<>();
+        policy.recordInsert("a", 40, evicted::add);
+        policy.recordInsert("b", 40, evicted::add);
+        policy.recordInsert("c", 0, evicted::add);
+        assertTrue(evicted.isEmpty());
+        policy.recordUpdate("c", 30, evicted::add);
+        assertEquals(1, evicted.size());
+        assertEquals("a", evicted.get(0));
+        policy.recordUpdate("b", 200, evicted::add);
+        assertEquals(2, evicted.size());
+        assertEquals("b", evicted.get(1));
+        policy.recordInsert("d", 70, evicted::add);
+        assertEquals(2, evicted.size());
+    }
+
+    @Test
+    public void testWindowTinyLfuByWeight() throws Exception {
+        EvictionPolicy<Integer> policy = EvictionPolicy.windowTinyLfu(1000);
+        final long[] weight = new long[1];
+        final int[] weights = new int[2000];
+        Random random = new Random(3);
+        for(int i=0; i<weights.length; i++) {
+            weights[i] = 1 + random.nextInt(20);
+            weight[0] += weights[i];
+            policy.recordInsert(i, weights[i], k -> weight[0] -= weights[k]);
+            assertTrue(weight[0] <= 1000);
+        }
+        assertTrue(weight[0] > 900);
+    }
+
+    @Test
+    public void testWindowTinyLfuByteBudget() throws Exception {
+        EvictionPolicy<Integer> policy = EvictionPolicy.windowTinyLfu(64L * 1024 * 1024 * 1024); // sketch is not sized by bytes
+        List<Integer> evicted = new ArrayList<>();
+        for(int i=0; i<5000; i++) {
+            policy.recordInsert(i, 1024, evicted::add);
+        }
+        assertTrue(evicted.isEmpty());
+        EvictionPolicy.<Integer>windowTinyLfu(64L * 1024 * 1024 * 1024, 10000).recordInsert(1, 1024, evicted::add);
+        assertTrue(evicted.isEmpty());
+    }
+
+    @Test
+    public void testWindowTinyLfuComparesCandidateAtHeadOfProbation() throws Exception {
+        EvictionPolicy<String> policy = EvictionPolicy.windowTinyLfu(20);
+        List<String> evicted = new ArrayList<>();
+        policy.recordInsert("a", 1, evicted::add);
+        policy.recordInsert("b", 1, evicted::add);
+        policy.recordAccess("a"); // protected
+        policy.recordUpdate("a", 15, evicted::add);
+        policy.recordRemoval("b"); // window and probation are empty now
+        for(int i=0; i<5; i++) {
+            policy.recordAccess("c");
+        }
+        policy.recordInsert("c", 10, evicted::add);
+        assertEquals(Arrays.asList("a"), evicted);
+    }
+
+    @Test
+    public void testWindowTinyLfuKeepsSize() throws Exception {
+        EvictionPolicy<Integer> policy = EvictionPolicy.windowTinyLfu(100);
+        List<Integer> evicted = new ArrayList<>();
+        Random random = new Random(1);
+        int inserted = 0;
+        for(int i=0; i<10000; i++) {
+            int key = random.nextInt(1000);
+            policy.recordInsert(key + i * 1000, 1, evicted::add);
+            inserted++;
+            if (i % 3 == 0) {
+                policy.recordAccess(key);
+            }
+        }
+        assertEquals(inserted - 100, evicted.size());
+    }
+
+    @Test
+    public void testWindowTinyLfuIsScanResistant() throws Exception {
+        int lruHits = hitsAfterScan(SimpleCache.<Integer,Integer>builder().maximumSize(100));
+        int tinyLfuHits = hitsAfterScan(SimpleCache.<Integer,Integer>builder().evictionPolicy(EvictionPolicy.windowTinyLfu(100)));
+        assertEquals(0, lruHits);
+        assertTrue("W-TinyLFU kept only " + tinyLfuHits + " hot entries", tinyLfuHits >= 45);
+    }
+
+    private static int hitsAfterScan(SimpleCache.Builder<Integer,Integer> builder) {
+        SimpleCache<Integer,Integer> cache = builder.expireAfterWrite(1, TimeUnit.HOURS).build();
+        for(int round=0; round<5; round++) {
+            for(int hot=0; hot<50; hot++) {
+                cache.fetch(hot, () -> 0);
+            }
+        }
+        for(int cold=1000; cold<11000; cold++) {
+            cache.fetch(cold, () -> 0);
+        }
+        int hits = 0;
+        for(int hot=0; hot<50; hot++) {
+            if (cache.containsKey(hot)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
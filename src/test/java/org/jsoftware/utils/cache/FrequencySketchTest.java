@@ -0,0 +1,60 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void testIncrement() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(512);
+        assertEquals(0, sketch.frequency("a"));
+        sketch.increment("a");
+        sketch.increment("a");
+        sketch.increment("b");
+        assertEquals(2, sketch.frequency("a"));
+        assertEquals(1, sketch.frequency("b"));
+    }
+
+    @Test
+    public void testMaximumFrequency() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(512);
+        for(int i=0; i<100; i++) {
+            sketch.increment("a");
+        }
+        assertEquals(15, sketch.frequency("a"));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for(int i=0; i<10; i++) {
+            sketch.increment("hot");
+        }
+        for(int i=0; i<1000; i++) {
+            sketch.increment(i);
+        }
+        assertTrue(sketch.frequency("hot") < 10);
+    }
+
+    @Test
+    public void testEnsureCapacity() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(1);
+        for(int i=0; i<5; i++) {
+            sketch.increment("a");
+        }
+        sketch.ensureCapacity(1);
+        assertEquals(5, sketch.frequency("a"));
+        sketch.ensureCapacity(1024);
+        assertEquals("history is forgotten when the sketch grows", 0, sketch.frequency("a"));
+        for(int i=0; i<100; i++) {
+            sketch.increment(i);
+        }
+        for(int i=0; i<3; i++) {
+            sketch.increment("a");
+        }
+        assertTrue(sketch.frequency("a") >= 3);
+    }
+}
@@ -0,0 +1,94 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedFileStoreTest {
+    private File file;
+    private MappedFileStore<String> store;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("store", ".bin");
+        store = new MappedFileStore<>(file.toPath(), 32);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        file.delete();
+    }
+
+    @Test
+    public void testWriteTake() throws Exception {
+        assertTrue(store.write("a", bytes("0123456789"), 100, 0));
+        assertTrue(store.containsKey("a", 0));
+        assertEquals("0123456789", string(store.take("a", 0)));
+        assertNull(store.take("a", 0));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        store.write("a", bytes("0123456789"), 100, 0);
+        assertFalse(store.containsKey("a", 100));
+        assertNull(store.take("a", 100));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        store.write("a", bytes("0123456789"), 100, 0);
+        store.write("b", bytes("abcdefghij"), 100, 0);
+        store.write("c", bytes("ABCDEFGHIJ"), 100, 0);
+        store.remove("b");
+        assertTrue(store.write("d", bytes("KLMNOPQRST"), 100, 0));
+        assertEquals(3, store.size());
+        assertEquals("0123456789", string(store.take("a", 0)));
+        assertEquals("ABCDEFGHIJ", string(store.take("c", 0)));
+        assertEquals("KLMNOPQRST", string(store.take("d", 0)));
+    }
+
+    @Test
+    public void testCompactionDropsExpired() throws Exception {
+        store.write("a", bytes("0123456789"), 10, 0);
+        store.write("b", bytes("abcdefghij"), 100, 0);
+        store.write("c", bytes("ABCDEFGHIJ"), 100, 0);
+        store.write("d", bytes("KLMNOPQRST"), 100, 20);
+        assertEquals(3, store.size());
+        assertEquals("abcdefghij", string(store.take("b", 20)));
+    }
+
+    @Test
+    public void testOldestDroppedWhenFull() throws Exception {
+        store.write("a", bytes("0123456789"), 100, 0);
+        store.write("b", bytes("abcdefghij"), 100, 0);
+        store.write("c", bytes("ABCDEFGHIJ"), 100, 0);
+        store.write("d", bytes("KLMNOPQRST"), 100, 0);
+        assertFalse(store.containsKey("a", 0));
+        assertEquals("abcdefghij", string(store.take("b", 0)));
+        assertEquals("KLMNOPQRST", string(store.take("d", 0)));
+    }
+
+    @Test
+    public void testTooLarge() throws Exception {
+        assertFalse(store.write("a", new byte[33], 100, 0));
+        assertEquals(0, store.size());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(MappedFileStore.Record record) {
+        return new String(record.data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,231 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapCacheTest {
+    private static final Serializer<String> STRING_SERIALIZER = new Serializer<String>() {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] data) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+    };
+    private Instant now;
+    private OffHeapCache<Object,String> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        now = Instant.now();
+        cache = new OffHeapCache<Object, String>(TimeUnit.SECONDS.toMillis(1), 1024, 256, STRING_SERIALIZER) {
+            @Override
+            protected Instant now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void testMaximumTtlDoesNotOverflow() throws Exception {
+        OffHeapCache<String,String> c = new OffHeapCache<>(Long.MAX_VALUE, 1024, 256, STRING_SERIALIZER);
+        c.put("a", "A");
+        c.put("b", "B", Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        assertEquals("A", c.get("a"));
+        assertEquals("B", c.get("b"));
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        assertNull(cache.put("x", "one"));
+        assertEquals("one", cache.put("x", "two"));
+        assertEquals("two", cache.get("x"));
+        assertTrue(cache.containsKey("x"));
+        assertTrue(cache.containsValue("two"));
+        assertEquals("two", cache.remove("x"));
+        assertNull(cache.get("x"));
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        cache.put("x", "one");
+        now = now.plusSeconds(2);
+        assertNull(cache.get("x"));
+        assertFalse(cache.containsKey("x"));
+        assertEquals(1, cache.stats().getExpirationCount());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsedOfTheSameSize() throws Exception {
+        for(int i=0; i<16; i++) { // 4 slabs of 4 chunks of 64 bytes
+            cache.put(i, "value" + i);
+        }
+        cache.get(0);
+        cache.put(16, "value16");
+        assertEquals("value0", cache.get(0));
+        assertNull(cache.get(1));
+        assertEquals("value16", cache.get(16));
+        assertEquals(16, cache.size());
+        assertEquals(1, cache.stats().getEvictionCount());
+    }
+
+    @Test
+    public void testValueLargerThenSlabIsNotCached() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<300; i++) {
+            sb.append('x');
+        }
+        cache.put("small", "s");
+        cache.put("large", sb.toString());
+        assertNull(cache.get("large"));
+        assertEquals("s", cache.get("small"));
+    }
+
+    @Test
+    public void testClearReusesMemory() throws Exception {
+        for(int i=0; i<16; i++) {
+            cache.put(i, "value" + i);
+        }
+        cache.clear();
+        assertEquals(0, cache.size());
+        cache.put("x", "123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890");
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.stats().getEvictionCount());
+    }
+
+    @Test
+    public void testCleanUp() throws Exception {
+        cache.put("a", "A");
+        cache.put("b", "B");
+        now = now.plusSeconds(2);
+        cache.put("c", "C");
+        cache.cleanUp();
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.keySet().size());
+        assertEquals("C", cache.entrySet().iterator().next().getValue());
+    }
+
+    @Test
+    public void testConcurrentFetchOfTheSameKeyCallsSupplierOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for(int i=0; i<8; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                cache.fetch("x", () -> {
+                    calls.incrementAndGet();
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return "value";
+                });
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for(Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, calls.get());
+        assertEquals("value", cache.get("x"));
+    }
+
+    @Test
+    public void testConcurrentAccessOfDifferentSizes() throws Exception {
+        OffHeapCache<Integer,String> c = new OffHeapCache<>(TimeUnit.MINUTES.toMillis(1), 4096, 512, STRING_SERIALIZER);
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for(int i=0; i<8; i++) {
+            final int thread = i;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                for(int n=0; n<20000; n++) {
+                    int key = (n * 31 + thread) % 64;
+                    String expected = valueOf(key);
+                    String value = n % 3 == 0 ? c.put(key, expected) : n % 7 == 0 ? c.remove(key) : c.get(key);
+                    if (value != null && ! value.equals(expected)) {
+                        errors.incrementAndGet();
+                    }
+                    if (n % 5000 == 0 && thread == 0) {
+                        c.clear();
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for(Thread t : threads) {
+            t.join();
+        }
+        assertEquals(0, errors.get());
+        for(Integer key : c.keySet()) {
+            String value = c.get(key);
+            assertTrue(value == null || value.equals(valueOf(key)));
+        }
+    }
+
+    private static String valueOf(int key) {
+        StringBuilder sb = new StringBuilder().append(key).append(':');
+        while (sb.length() < (key % 4 + 1) * 50) { // sizes of 64, 128 and 256 bytes chunks
+            sb.append(key % 10);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testJavaSerializer() throws Exception {
+        OffHeapCache<String,Integer> c = new OffHeapCache<>(TimeUnit.MINUTES.toMillis(1), 1 << 20, Serializer.javaSerializer());
+        c.put("x", 42);
+        assertEquals(Integer.valueOf(42), c.get("x"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullKey() throws Exception {
+        cache.put(null, "value");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSlabSize() throws Exception {
+        new OffHeapCache<>(1000, 1024, 100, STRING_SERIALIZER);
+    }
+
+    @Test
+    public void testPutWithTtl() throws Exception {
+        assertNull(cache.put("x", "X", 10, TimeUnit.SECONDS));
+        now = now.plusSeconds(5);
+        assertEquals("X", cache.get("x"));
+        now = now.plusSeconds(6);
+        assertNull(cache.get("x"));
+    }
+}
@@ -0,0 +1,59 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadBufferTest {
+
+    @Test
+    public void testOfferAndDrain() throws Exception {
+        ReadBuffer<Integer> buffer = new ReadBuffer<>();
+        for(int i=0; i<ReadBuffer.STRIPE_SIZE; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse("stripe is full", buffer.offer(100));
+        List<Integer> drained = new ArrayList<>();
+        buffer.drain(drained::add);
+        assertEquals(ReadBuffer.STRIPE_SIZE, drained.size());
+        assertEquals(Integer.valueOf(0), drained.get(0));
+        assertTrue(buffer.offer(200));
+        drained.clear();
+        buffer.drain(drained::add);
+        assertEquals(1, drained.size());
+        assertEquals(Integer.valueOf(200), drained.get(0));
+    }
+
+    @Test
+    public void testConcurrentOffers() throws Exception {
+        ReadBuffer<Integer> buffer = new ReadBuffer<>();
+        AtomicInteger drained = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for(int t=0; t<4; t++) {
+            Thread thread = new Thread(() -> {
+                for(int i=0; i<10000; i++) {
+                    if (! buffer.offer(i)) {
+                        synchronized (buffer) {
+                            buffer.drain(e -> drained.incrementAndGet());
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        buffer.drain(e -> drained.incrementAndGet());
+        assertTrue(drained.get() > 0);
+        assertTrue(drained.get() <= 40000);
+    }
+
+}
@@ -0,0 +1,101 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimpleAsyncCacheTest {
+    private SimpleAsyncCache<String,String> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new SimpleAsyncCache<>(TimeUnit.MINUTES.toMillis(1), 10);
+    }
+
+    @Test
+    public void testFetchAsyncCoalescesInFlightLoads() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletableFuture<String> backend = new CompletableFuture<>();
+        CompletableFuture<String> f1 = cache.fetchAsync("x", k -> {
+            calls.incrementAndGet();
+            return backend;
+        });
+        CompletableFuture<String> f2 = cache.fetchAsync("x", k -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        assertSame(f1, f2);
+        assertFalse(f1.isDone());
+        backend.complete("value");
+        assertEquals("value", f1.get(1, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals("value", cache.getIfPresent("x").get());
+    }
+
+    @Test
+    public void testFetchAsyncSupplierRunsInExecutor() throws Exception {
+        final Thread caller = Thread.currentThread();
+        CompletableFuture<String> f = cache.fetchAsync("x", () -> Thread.currentThread() == caller ? "caller" : "executor");
+        assertEquals("executor", f.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailedLoadIsRemoved() throws Exception {
+        SimpleAsyncCache<String,String> c = new SimpleAsyncCache<>(TimeUnit.MINUTES.toMillis(1), 10, Runnable::run);
+        CompletableFuture<String> f = c.fetchAsync("x", k -> {
+            throw new IllegalStateException("failed");
+        });
+        try {
+            f.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertNull(c.getIfPresent("x"));
+        assertEquals("ok", c.fetchAsync("x", () -> "ok").get());
+    }
+
+    @Test
+    public void testRejectedLoadIsRemoved() throws Exception {
+        AtomicInteger rejected = new AtomicInteger();
+        SimpleAsyncCache<String,String> c = new SimpleAsyncCache<>(TimeUnit.MINUTES.toMillis(1), 10, r -> {
+            if (rejected.getAndIncrement() == 0) {
+                throw new RejectedExecutionException("queue full");
+            }
+            r.run();
+        });
+        CompletableFuture<String> f = c.fetchAsync("x", () -> "never");
+        assertTrue(f.isCompletedExceptionally());
+        try {
+            f.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertNull(c.getIfPresent("x"));
+        assertEquals("ok", c.fetchAsync("x", () -> "ok").get());
+    }
+
+    @Test
+    public void testPutAndInvalidate() throws Exception {
+        cache.put("a", CompletableFuture.completedFuture("A"));
+        cache.put("b", CompletableFuture.completedFuture("B"));
+        assertEquals("A", cache.fetchAsync("a", () -> "other").get());
+        cache.invalidate("a");
+        assertNull(cache.getIfPresent("a"));
+        cache.invalidateAll();
+        assertNull(cache.getIfPresent("b"));
+    }
+}
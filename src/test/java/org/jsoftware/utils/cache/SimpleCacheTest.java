@@ -1,18 +1,28 @@
 package org.jsoftware.utils.cache;
 
 import org.hamcrest.CoreMatchers;
+import org.jsoftware.utils.time.TestClock;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -194,4 +204,987 @@ public class SimpleCacheTest {
         Assert.assertArrayEquals(map.entrySet().toArray(), cache.entrySet().toArray());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testConcurrentFetchOfExpiredKeyCallsSupplierOnce() throws Exception {
+        cache.put("x", "old");
+        now = now.plusSeconds(2);
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Object> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for(int i=0; i<8; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                Object r = cache.fetch("x", () -> {
+                    calls.incrementAndGet();
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return "new";
+                });
+                synchronized (results) {
+                    results.add(r);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for(Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(8, results.size());
+        for(Object r : results) {
+            assertEquals("new", r);
+        }
+    }
+
+    @Test
+    public void testFailedLoadLeavesEntryInvalid() throws Exception {
+        try {
+            cache.fetch("x", () -> {
+                throw new IllegalArgumentException();
+            });
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertNull(cache.get("x"));
+        assertEquals("v", cache.fetch("x", () -> "v"));
+    }
+
+    @Test(expected = CacheLoadTimeoutException.class)
+    public void testLoadWaitTimeout() throws Exception {
+        final SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumSize(10)
+                .loadWaitTimeout(50, TimeUnit.MILLISECONDS)
+                .build();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread t = new Thread(() -> c.fetch("x", () -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return "slow";
+        }));
+        t.start();
+        loading.await();
+        try {
+            c.fetch("x", () -> "fast");
+        } finally {
+            release.countDown();
+            t.join();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuilderRequiresSize() throws Exception {
+        SimpleCache.builder().expireAfterWrite(1, TimeUnit.SECONDS).build();
+    }
+
+    @Test
+    public void testRefreshAfterWrite() throws Exception {
+        TestClock clock = new TestClock();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1000, TimeUnit.MILLISECONDS)
+                .refreshAfterWrite(500, TimeUnit.MILLISECONDS)
+                .refreshExecutor(Runnable::run)
+                .clock(clock)
+                .maximumSize(10)
+                .build();
+        assertEquals("a", c.fetch("x", () -> "a"));
+        clock.plus(400);
+        assertEquals("a", c.fetch("x", () -> "b"));
+        clock.plus(200);
+        assertEquals("stale value served while refreshing", "a", c.fetch("x", () -> "c"));
+        assertEquals("c", c.get("x"));
+        clock.plus(600);
+        assertEquals("c", c.fetch("x", () -> "d"));
+        assertEquals("d", c.get("x"));
+        clock.plus(1100);
+        assertEquals("hard expiry loads synchronously", "e", c.fetch("x", () -> "e"));
+    }
+
+    @Test
+    public void testRefreshFailureKeepsOldValue() throws Exception {
+        TestClock clock = new TestClock();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1000, TimeUnit.MILLISECONDS)
+                .refreshAfterWrite(500, TimeUnit.MILLISECONDS)
+                .refreshExecutor(r -> {
+                    try {
+                        r.run();
+                    } catch (IllegalArgumentException e) {
+                        // failure of background refresh
+                    }
+                })
+                .clock(clock)
+                .maximumSize(10)
+                .build();
+        c.put("x", "a");
+        clock.plus(600);
+        assertEquals("a", c.fetch("x", () -> {
+            throw new IllegalArgumentException();
+        }));
+        assertEquals("a", c.get("x"));
+        assertEquals("a", c.fetch("x", () -> "b"));
+        assertEquals("b", c.get("x"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRefreshLongerThenTtl() throws Exception {
+        SimpleCache.builder().expireAfterWrite(1, TimeUnit.SECONDS).refreshAfterWrite(2, TimeUnit.SECONDS).maximumSize(1).build();
+    }
+
+    @Test
+    public void testExpirySweeper() throws Exception {
+        TestClock clock = new TestClock();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.SECONDS)
+                .expirySweeper(1, TimeUnit.HOURS)
+                .clock(clock)
+                .maximumSize(3)
+                .build();
+        c.put("a", "a");
+        c.put("b", "b");
+        clock.plus(500);
+        c.put("a", "a2");
+        clock.plus(700);
+        c.cleanUp();
+        assertEquals(1, c.size());
+        assertEquals("a2", c.get("a"));
+        clock.plus(2000);
+        c.cleanUp();
+        assertTrue(c.isEmpty());
+    }
+
+    @Test
+    public void testExpiredEntriesDoNotTakeCapacity() throws Exception {
+        TestClock clock = new TestClock();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.SECONDS)
+                .expirySweeper(1, TimeUnit.HOURS)
+                .clock(clock)
+                .maximumSize(3)
+                .build();
+        c.put("a", "a");
+        c.put("b", "b");
+        clock.plus(2000);
+        c.put("c", "c");
+        c.cleanUp();
+        c.put("d", "d");
+        c.put("e", "e");
+        assertEquals(3, c.size());
+        assertEquals("c", c.get("c"));
+        c.remove("c");
+        c.clear();
+        clock.plus(2000);
+        c.cleanUp();
+        assertTrue(c.isEmpty());
+    }
+
+    @Test
+    public void testCleanUpWithoutSweeper() throws Exception {
+        cache.put("a", 1);
+        cache.put("b", 2);
+        now = now.plusSeconds(2);
+        cache.put("c", 3);
+        cache.cleanUp();
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testBackgroundSweeper() throws Exception {
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.MILLISECONDS)
+                .expirySweeper(20, TimeUnit.MILLISECONDS)
+                .maximumSize(3)
+                .build();
+        c.put("a", "a");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (! c.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(c.isEmpty());
+    }
+
+    @Test
+    public void testMaximumWeight() throws Exception {
+        SimpleCache<String,byte[]> c = SimpleCache.<String,byte[]>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumWeight(100)
+                .weigher((k, v) -> v.length)
+                .build();
+        c.put("a", new byte[40]);
+        c.put("b", new byte[40]);
+        c.fetch("c", () -> new byte[10]);
+        assertEquals(3, c.size());
+        c.put("c", new byte[30]);
+        assertEquals(2, c.size());
+        assertNull(c.get("a"));
+        c.put("big", new byte[101]);
+        assertFalse(c.containsKey("big"));
+        c.remove("b");
+        c.put("d", new byte[70]);
+        assertEquals(2, c.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMaximumWeightRequiresWeigher() throws Exception {
+        SimpleCache.builder().expireAfterWrite(1, TimeUnit.SECONDS).maximumWeight(100).build();
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        cache.fetch("a", () -> "A");
+        cache.fetch("a", () -> "A");
+        cache.get("a");
+        cache.get("b");
+        try {
+            cache.fetch("c", () -> {
+                throw new IllegalArgumentException();
+            });
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        cache.put("d", "D");
+        cache.put("e", "E");
+        now = now.plusSeconds(2);
+        cache.fetch("e", () -> "E2");
+        CacheStats stats = cache.stats();
+        assertEquals(2, stats.getHitCount());
+        assertEquals(4, stats.getMissCount());
+        assertEquals(2, stats.getLoadSuccessCount());
+        assertEquals(1, stats.getLoadFailureCount());
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(1, stats.getExpirationCount());
+        assertTrue(stats.getTotalLoadTime() > 0);
+    }
+
+    @Test
+    public void testFetchAll() throws Exception {
+        cache.put("a", "A");
+        List<Set<Object>> calls = new ArrayList<>();
+        Map<Object,Object> rv = cache.fetchAll(Arrays.asList("a", "b", "c"), keys -> {
+            calls.add(new HashSet<>(keys));
+            Map<Object,Object> m = new HashMap<>();
+            m.put("b", "B");
+            return m;
+        });
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+        assertEquals(1, stats.getLoadSuccessCount());
+        assertEquals(1, calls.size());
+        assertEquals(2, calls.get(0).size());
+        Assert.assertThat(calls.get(0), CoreMatchers.hasItem("c"));
+        assertEquals(2, rv.size());
+        assertEquals("A", rv.get("a"));
+        assertEquals("B", rv.get("b"));
+        assertFalse(rv.containsKey("c"));
+        assertEquals("B", cache.get("b"));
+        assertNull(cache.get("c"));
+    }
+
+    @Test
+    public void testFetchAllAwaitsConcurrentLoad() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final Map<Object,AtomicInteger> loads = new ConcurrentHashMap<>();
+        Thread t = new Thread(() -> cache.fetch("a", () -> {
+            loading.countDown();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return "A";
+        }));
+        t.start();
+        loading.await();
+        Map<Object,Object> rv = cache.fetchAll(Arrays.asList("a", "b"), keys -> {
+            Map<Object,Object> m = new HashMap<>();
+            keys.forEach(k -> {
+                loads.computeIfAbsent(k, x -> new AtomicInteger()).incrementAndGet();
+                m.put(k, k.toString().toUpperCase());
+            });
+            return m;
+        });
+        t.join();
+        assertEquals("A", rv.get("a"));
+        assertEquals("B", rv.get("b"));
+        assertFalse(loads.containsKey("a"));
+        assertEquals(1, loads.get("b").get());
+    }
+
+    @Test
+    public void testFetchAllLoadsExpired() throws Exception {
+        cache.put("a", "A");
+        now = now.plusSeconds(2);
+        Map<Object,Object> rv = cache.fetchAll(Arrays.asList("a"), keys -> {
+            Map<Object,Object> m = new HashMap<>();
+            m.put("a", "A2");
+            return m;
+        });
+        assertEquals("A2", rv.get("a"));
+        assertEquals(1, cache.stats().getExpirationCount());
+    }
+
+    @Test
+    public void testExpiryPerEntry() throws Exception {
+        TestClock clock = new TestClock();
+        SimpleCache<String,Integer> c = SimpleCache.<String,Integer>builder()
+                .expireAfter((String key, Integer value, long now) -> TimeUnit.SECONDS.toMillis(value))
+                .maximumSize(10)
+                .clock(clock)
+                .build();
+        c.put("short", 1);
+        c.fetch("long", () -> 10);
+        clock.plus(2, TimeUnit.SECONDS);
+        assertNull(c.get("short"));
+        assertEquals(Integer.valueOf(10), c.get("long"));
+        clock.plus(9, TimeUnit.SECONDS);
+        assertNull(c.get("long"));
+    }
+
+    @Test
+    public void testExpiryAfterRead() throws Exception {
+        TestClock clock = new TestClock();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfter(new Expiry<String, String>() {
+                    @Override
+                    public long expireAfterCreate(String key, String value, long currentTimeMillis) {
+                        return 1000;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, String value, long currentTimeMillis, long currentDurationMillis) {
+                        return 1000;
+                    }
+                })
+                .maximumSize(10)
+                .clock(clock)
+                .build();
+        c.put("x", "X");
+        for(int i=0; i<5; i++) {
+            clock.plus(800);
+            assertEquals("X", c.get("x"));
+        }
+        clock.plus(1001);
+        assertNull(c.get("x"));
+    }
+
+    @Test
+    public void testPutWithTtl() throws Exception {
+        assertNull(cache.put("x", "X", 10, TimeUnit.SECONDS));
+        assertEquals("X", cache.put("x", "X2", 10, TimeUnit.SECONDS));
+        now = now.plusSeconds(5);
+        assertEquals("X2", cache.get("x"));
+        now = now.plusSeconds(6);
+        assertNull(cache.get("x"));
+    }
+
+    @Test
+    public void testPutWithTtlReschedulesSweep() throws Exception {
+        TestClock clock = new TestClock();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.HOURS)
+                .expirySweeper(1, TimeUnit.HOURS)
+                .maximumSize(10)
+                .clock(clock)
+                .build();
+        c.put("x", "X", 2, TimeUnit.SECONDS);
+        clock.plus(5, TimeUnit.SECONDS);
+        c.cleanUp();
+        assertEquals(0, c.size());
+    }
+
+    @Test
+    public void testRefreshWithExpiry() throws Exception {
+        TestClock clock = new TestClock();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfter((String key, String value, long now) -> 10000)
+                .refreshAfterWrite(500, TimeUnit.MILLISECONDS)
+                .refreshExecutor(Runnable::run)
+                .maximumSize(10)
+                .clock(clock)
+                .build();
+        c.fetch("x", () -> "v1");
+        clock.plus(400);
+        assertEquals("v1", c.fetch("x", () -> "v2"));
+        clock.plus(200);
+        assertEquals("v1", c.fetch("x", () -> "v2"));
+        assertEquals("v2", c.get("x"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuildWithTtlAndExpiry() throws Exception {
+        SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.SECONDS)
+                .expireAfter((String key, String value, long now) -> 1000)
+                .maximumSize(1)
+                .build();
+    }
+
+    @Test
+    public void testWeakValues() throws Exception {
+        SimpleCache<String,Object> c = SimpleCache.<String,Object>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumSize(10)
+                .weakValues()
+                .build();
+        Object strong = new Object();
+        c.put("strong", strong);
+        c.put("weak", new Object());
+        for(int i=0; i<50 && c.get("weak") != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(c.get("weak"));
+        assertEquals(strong, c.get("strong"));
+        assertEquals("reloaded", c.fetch("weak", () -> "reloaded"));
+        c.put("other", "x");
+        assertEquals(3, c.size());
+    }
+
+    @Test
+    public void testWeakValuesRemovedOnWrite() throws Exception {
+        SimpleCache<String,Object> c = SimpleCache.<String,Object>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumSize(10)
+                .weakValues()
+                .build();
+        c.put("weak", new Object());
+        for(int i=0; i<50 && c.get("weak") != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        c.put("other", "x");
+        assertEquals(1, c.size());
+        assertEquals(1, c.stats().getEvictionCount());
+    }
+
+    @Test
+    public void testSoftValues() throws Exception {
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumSize(10)
+                .softValues()
+                .build();
+        assertEquals("A", c.fetch("a", () -> "A"));
+        c.put("b", null);
+        assertEquals("A", c.get("a"));
+        assertTrue(c.containsKey("b"));
+        assertNull(c.get("b"));
+    }
+
+    @Test
+    public void testLiveViews() throws Exception {
+        Set<Object> keys = cache.keySet();
+        Set<Map.Entry<Object,Object>> entries = cache.entrySet();
+        assertTrue(keys.isEmpty());
+        cache.put("a", "A");
+        cache.put("b", "B");
+        assertEquals(2, keys.size());
+        assertTrue(keys.contains("a"));
+        assertTrue(cache.values().contains("B"));
+        assertTrue(entries.contains(new AbstractMap.SimpleImmutableEntry<>("a", "A")));
+        now = now.plusSeconds(2);
+        cache.put("c", "C");
+        assertEquals(1, keys.size());
+        assertEquals("c", keys.iterator().next());
+        assertFalse(entries.contains(new AbstractMap.SimpleImmutableEntry<>("a", "A")));
+        keys.remove("c");
+        assertNull(cache.get("c"));
+    }
+
+    @Test
+    public void testViewsDoNotThrowConcurrentModification() throws Exception {
+        SimpleCache<Integer,Integer> c = new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), 1000);
+        for(int i=0; i<100; i++) {
+            c.put(i, i);
+        }
+        int count = 0;
+        for(Integer key : c.keySet()) {
+            c.put(key + 1000, key);
+            c.remove(key);
+            count++;
+        }
+        assertTrue(count >= 100);
+    }
+
+    @Test
+    public void testParallelTraversal() throws Exception {
+        SimpleCache<Integer,Integer> c = new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), 10000);
+        for(int i=0; i<10000; i++) {
+            c.put(i, i);
+        }
+        assertEquals(10000, c.keySet().parallelStream().count());
+        assertEquals(49995000L, c.values().parallelStream().mapToLong(Integer::longValue).sum());
+        assertTrue(c.entrySet().stream().allMatch(e -> e.getKey().equals(e.getValue())));
+        AtomicInteger sum = new AtomicInteger();
+        c.forEach((k, v) -> sum.addAndGet(v));
+        assertEquals(49995000, sum.get());
+    }
+
+    @Test
+    public void testRemovalListenerCauses() throws Exception {
+        TestClock clock = new TestClock();
+        List<String> removals = new ArrayList<>();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.SECONDS)
+                .maximumSize(2)
+                .clock(clock)
+                .removalListener((k, v, cause) -> removals.add(k + "=" + v + ":" + cause), Runnable::run)
+                .build();
+        c.put("a", "A");
+        c.put("a", "A2");
+        c.remove("a");
+        c.put("b", "B");
+        c.put("c", "C");
+        c.put("d", "D");
+        clock.plus(2000);
+        c.cleanUp();
+        assertEquals(Arrays.asList("a=A:REPLACED", "a=A2:EXPLICIT", "b=B:SIZE", "c=C:EXPIRED", "d=D:EXPIRED"), removals);
+        c.fetch("e", () -> "E");
+        clock.plus(2000);
+        c.fetch("e", () -> "E2");
+        c.clear();
+        assertEquals(Arrays.asList("e=E:EXPIRED", "e=E2:EXPLICIT"), removals.subList(5, removals.size()));
+    }
+
+    @Test
+    public void testRemovalNotificationsDeliveredInBatches() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        List<Integer> removed = new ArrayList<>();
+        SimpleCache<Integer,Integer> c = SimpleCache.<Integer,Integer>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumSize(10)
+                .removalListener((k, v, cause) -> removed.add(k), tasks::add)
+                .build();
+        for(int i=0; i<20; i++) {
+            c.put(i, i);
+        }
+        assertTrue(removed.isEmpty());
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        assertEquals(10, removed.size());
+        c.remove(15);
+        assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void testRemovalListenerExceptionIgnored() throws Exception {
+        List<Integer> removed = new ArrayList<>();
+        SimpleCache<Integer,Integer> c = SimpleCache.<Integer,Integer>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumSize(10)
+                .removalListener((k, v, cause) -> {
+                    removed.add(k);
+                    throw new IllegalStateException();
+                }, Runnable::run)
+                .build();
+        c.put(1, 1);
+        c.put(2, 2);
+        c.clear();
+        assertEquals(2, removed.size());
+    }
+
+    @Test
+    public void testComputeIfAbsent() throws Exception {
+        assertEquals("A", cache.computeIfAbsent("a", k -> "A"));
+        assertEquals("A", cache.computeIfAbsent("a", k -> "B"));
+        assertNull(cache.computeIfAbsent("b", k -> null));
+        assertFalse(cache.containsKey("b"));
+        now = now.plusSeconds(2);
+        assertEquals("expired entry is absent", "C", cache.computeIfAbsent("a", k -> "C"));
+    }
+
+    @Test
+    public void testComputeAndMerge() throws Exception {
+        assertNull(cache.computeIfPresent("a", (k, v) -> v + "!"));
+        assertFalse(cache.containsKey("a"));
+        assertEquals("A", cache.compute("a", (k, v) -> v == null ? "A" : v + "!"));
+        assertEquals("A!", cache.compute("a", (k, v) -> v == null ? "A" : v + "!"));
+        assertEquals("A!?", cache.computeIfPresent("a", (k, v) -> v + "?"));
+        assertEquals("A!?.", cache.merge("a", ".", (a, b) -> a + "" + b));
+        assertNull(cache.compute("a", (k, v) -> null));
+        assertFalse(cache.containsKey("a"));
+        assertEquals("x", cache.merge("a", "x", (a, b) -> a + "" + b));
+        now = now.plusSeconds(2);
+        assertEquals("expired entry is absent", "y", cache.merge("a", "y", (a, b) -> a + "" + b));
+    }
+
+    @Test
+    public void testConcurrentMergeIsAtomic() throws Exception {
+        SimpleCache<String,Integer> c = new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), 10);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for(int i=0; i<8; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                for(int j=0; j<1000; j++) {
+                    c.merge("counter", 1, Integer::sum);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for(Thread t : threads) {
+            t.join();
+        }
+        assertEquals(Integer.valueOf(8000), c.get("counter"));
+    }
+
+    @Test
+    public void testConcurrentComputeIfAbsentCallsFunctionOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for(int i=0; i<8; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                cache.computeIfAbsent("x", k -> {
+                    calls.incrementAndGet();
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return "X";
+                });
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for(Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testExpireAfterAccess() throws Exception {
+        TestClock clock = new TestClock();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterAccess(1, TimeUnit.SECONDS)
+                .maximumSize(10)
+                .clock(clock)
+                .build();
+        c.put("a", "A");
+        c.put("b", "B");
+        clock.plus(800);
+        assertEquals("A", c.get("a"));
+        clock.plus(800);
+        assertEquals("read extended time to idle", "A", c.fetch("a", () -> "X"));
+        assertNull(c.get("b"));
+        clock.plus(1100);
+        assertNull(c.get("a"));
+    }
+
+    @Test
+    public void testExpireAfterAccessSkipsSmallDeadlineUpdates() throws Exception {
+        TestClock clock = new TestClock();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterAccess(1600, TimeUnit.MILLISECONDS)
+                .maximumSize(10)
+                .clock(clock)
+                .build();
+        c.put("a", "A");
+        clock.plus(50);
+        assertEquals("A", c.get("a"));
+        clock.plus(1560);
+        assertNull("read within 1/16 of time to idle did not extend it", c.get("a"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuilderTtlAndTimeToIdle() throws Exception {
+        SimpleCache.builder().expireAfterWrite(1, TimeUnit.SECONDS).expireAfterAccess(1, TimeUnit.SECONDS).maximumSize(1).build();
+    }
+
+    @Test
+    public void testWriteThrough() throws Exception {
+        List<String> writes = new ArrayList<>();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumSize(10)
+                .writer(new CacheWriter<String, String>() {
+                    @Override
+                    public void write(String key, String value) {
+                        if (value.isEmpty()) {
+                            throw new IllegalArgumentException();
+                        }
+                        writes.add(key + "=" + value);
+                    }
+
+                    @Override
+                    public void delete(String key) {
+                        writes.add("-" + key);
+                    }
+                })
+                .build();
+        c.put("a", "A");
+        c.fetch("b", () -> "B");
+        c.merge("a", "!", String::concat);
+        c.remove("a");
+        try {
+            c.put("c", "");
+        } catch (IllegalArgumentException e) {
+            assertFalse("not cached when write fails", c.containsKey("c"));
+        }
+        assertEquals(Arrays.asList("a=A", "a=A!", "-a"), writes);
+    }
+
+    @Test(timeout = 10000)
+    public void testReadsDoNotWaitForCacheLock() throws Exception {
+        CountDownLatch weighing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumWeight(100)
+                .weigher((k, v) -> {
+                    if (v.equals("slow")) {
+                        weighing.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return 1;
+                })
+                .build();
+        c.put("a", "A");
+        c.put("t", "T", "tag1", "tag2");
+        Thread writer = new Thread(() -> c.put("b", "slow")); // weighs holding the cache lock
+        writer.start();
+        try {
+            assertTrue(weighing.await(10, TimeUnit.SECONDS));
+            for(int i=0; i<1000; i++) {
+                assertEquals("A", c.get("a"));
+                assertEquals("A", c.fetch("a", () -> "X"));
+                assertEquals("T", c.fetch("t", () -> "X", "tag1", "tag2"));
+            }
+        } finally {
+            release.countDown();
+            writer.join();
+        }
+        assertEquals("slow", c.get("b"));
+    }
+
+    @Test
+    public void testReadsKeepLruOrder() throws Exception {
+        SimpleCache<String,String> c = new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), 2);
+        c.put("a", "A");
+        c.put("b", "B");
+        for(int i=0; i<100; i++) {
+            c.get("a");
+        }
+        c.put("c", "C");
+        assertTrue(c.containsKey("a"));
+        assertFalse(c.containsKey("b"));
+    }
+
+    @Test
+    public void testPutNotLostByConcurrentCleanUp() throws Exception {
+        SimpleCache<Integer,Integer> c = new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), 100000);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread cleaner = new Thread(() -> {
+            while (running.get()) {
+                c.cleanUp();
+            }
+        });
+        cleaner.start();
+        try {
+            for(int i=0; i<20000; i++) {
+                Integer value = i;
+                c.put(i, value);
+                assertEquals(value, c.get(i));
+                assertEquals(value, c.fetch(-i - 1, () -> value));
+                assertEquals(value, c.get(-i - 1));
+            }
+        } finally {
+            running.set(false);
+            cleaner.join();
+        }
+    }
+
+    @Test
+    public void testMaximumTtlDoesNotOverflow() throws Exception {
+        SimpleCache<String,String> c = new SimpleCache<>(Long.MAX_VALUE, 10);
+        c.put("a", "A");
+        c.put("b", "B", Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        assertEquals("A", c.get("a"));
+        assertEquals("B", c.get("b"));
+    }
+
+    @Test
+    public void testBatchLoader() throws Exception {
+        List<Set<String>> calls = Collections.synchronizedList(new ArrayList<>());
+        BatchingLoader<String,String> loader = new BatchingLoader<>(keys -> {
+            calls.add(new HashSet<>(keys));
+            Map<String,String> map = new HashMap<>();
+            keys.stream().filter(k -> ! k.equals("missing")).forEach(k -> map.put(k, k.toUpperCase()));
+            return map;
+        }, 3, 1, TimeUnit.HOURS);
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumSize(10)
+                .batchLoader(loader)
+                .build();
+        CountDownLatch start = new CountDownLatch(1);
+        Map<String,String> results = new ConcurrentHashMap<>();
+        List<Thread> threads = new ArrayList<>();
+        for(String key : Arrays.asList("a", "b", "missing")) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    results.put(key, c.fetch(key, () -> "supplier"));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for(Thread t : threads) {
+            t.join(10000);
+        }
+        assertEquals(1, calls.size());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "missing")), calls.get(0));
+        assertEquals("A", results.get("a"));
+        assertEquals("B", results.get("b"));
+        assertEquals("supplier", results.get("missing"));
+        assertEquals("A", c.get("a"));
+    }
+
+    @Test
+    public void testWriteThroughOrderedPerKey() throws Exception {
+        Map<String,String> store = new ConcurrentHashMap<>();
+        SimpleCache<String,String> c = SimpleCache.<String,String>builder()
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .maximumSize(10)
+                .writer(new CacheWriter<String, String>() {
+                    @Override
+                    public void write(String key, String value) {
+                        Thread.yield();
+                        store.put(key, value);
+                    }
+
+                    @Override
+                    public void delete(String key) {
+                        Thread.yield();
+                        store.remove(key);
+                    }
+                })
+                .build();
+        List<Thread> threads = new ArrayList<>();
+        for(int t=0; t<4; t++) {
+            String name = "t" + t;
+            Thread thread = new Thread(() -> {
+                for(int i=0; i<500; i++) {
+                    if (i % 7 == 0) {
+                        c.remove("k");
+                    } else {
+                        c.put("k", name + i);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(store.get("k"), c.get("k"));
+    }
+
+    @Test
+    public void testInvalidateByTag() throws Exception {
+        SimpleCache<String,String> c = new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), 3);
+        c.put("t1:a", "A", "tenant1");
+        c.fetch("t1:b", () -> "B", "tenant1", "premium");
+        c.put("t2:a", "A", "tenant2", "premium");
+        assertEquals(2, c.invalidateByTag("tenant1"));
+        assertEquals(Collections.singleton("t2:a"), c.keySet());
+        assertEquals(0, c.invalidateByTag("tenant1"));
+        c.put("t2:a", "A2", "tenant2");
+        assertEquals("tags replaced", 0, c.invalidateByTag("premium"));
+        c.put("t2:a", "A3");
+        c.put("x", "X");
+        c.put("y", "Y");
+        c.put("z", "Z");
+        assertFalse("evicted", c.containsKey("t2:a"));
+        assertEquals("evicted entry removed from index", 0, c.invalidateByTag("tenant2"));
+    }
+
+    @Test
+    public void testInvalidateIf() throws Exception {
+        SimpleCache<String,String> c = new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), 10);
+        c.put("t1:a", "A");
+        c.put("t1:b", "B");
+        c.put("t2:a", "A");
+        assertEquals(2, c.invalidateIf(key -> key.startsWith("t1:")));
+        assertEquals(Collections.singleton("t2:a"), c.keySet());
+    }
+
+    /**
+     * Entry of the cache is compared with entry of {@link ConcurrentHashMap} measured the same way,
+     * so the bound does not depend on object layout of the JVM (it is about 2.7 times bigger with compressed oops).
+     */
+    @Test
+    public void testEntryFootprint() throws Exception {
+        int count = 200000;
+        Integer[] keys = new Integer[count];
+        for(int i=0; i<count; i++) {
+            keys[i] = i + 1000;
+        }
+        Object value = new Object();
+        long before = usedMemory();
+        Map<Integer,Object> map = new ConcurrentHashMap<>();
+        for(int i=0; i<count; i++) {
+            map.put(keys[i], value);
+        }
+        long mapPerEntry = (usedMemory() - before) / count;
+        assertEquals(count, map.size());
+        map = null;
+        before = usedMemory();
+        SimpleCache<Integer,Object> c = new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), count);
+        for(int i=0; i<count; i++) {
+            c.put(keys[i], value);
+        }
+        long perEntry = (usedMemory() - before) / count;
+        assertEquals(count, c.size());
+        assertTrue("Entry overhead " + perEntry + " bytes, " + mapPerEntry + " bytes of ConcurrentHashMap.", perEntry < mapPerEntry * 7 / 2);
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i=0; i<4; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,124 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TieredCacheTest {
+    private Instant now;
+    private File file;
+    private TieredCache<String,Integer> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        now = Instant.now();
+        file = File.createTempFile("cache", ".bin");
+        cache = new TieredCache<String, Integer>(TimeUnit.SECONDS.toMillis(10), 2, file.toPath(), 4096, Serializer.javaSerializer()) {
+            @Override
+            protected Instant now() {
+                return now;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.close();
+        file.delete();
+    }
+
+    @Test
+    public void testEvictedEntriesAreMovedToDisk() throws Exception {
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        assertEquals(3, cache.size());
+        assertTrue(cache.containsKey("a"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(Integer.valueOf(2), cache.get("b"));
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+        assertEquals(3, cache.keySet().size());
+        assertEquals(3, cache.values().size());
+    }
+
+    @Test
+    public void testFetchPromotesWithoutLoading() throws Exception {
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        assertEquals(Integer.valueOf(1), cache.fetch("a", () -> 100));
+    }
+
+    @Test
+    public void testTtlIsKept() throws Exception {
+        cache.put("a", 1);
+        now = now.plusSeconds(6);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        now = now.plusSeconds(6);
+        assertNull(cache.get("a"));
+        assertEquals(Integer.valueOf(2), cache.get("b"));
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        assertEquals(Integer.valueOf(1), cache.remove("a"));
+        assertFalse(cache.containsKey("a"));
+        assertNull(cache.get("a"));
+        cache.clear();
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test(timeout = 20000)
+    public void testRemovedEntryIsNotSpilledLater() throws Exception {
+        cache.close();
+        final Serializer<Integer> serializer = Serializer.javaSerializer();
+        cache = new TieredCache<>(TimeUnit.SECONDS.toMillis(10), 1, file.toPath(), 1024 * 1024, new Serializer<Integer>() {
+            @Override
+            public byte[] serialize(Integer value) {
+                try {
+                    Thread.sleep(1); // widen the window between eviction and write
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return serializer.serialize(value);
+            }
+
+            @Override
+            public Integer deserialize(byte[] data) {
+                return serializer.deserialize(data);
+            }
+        });
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread filler = new Thread(() -> {
+            for(int i=0; running.get(); i++) {
+                cache.put("f" + (i % 50), i); // evicts entries of the main thread
+            }
+        });
+        filler.start();
+        try {
+            for(int i=0; i<1000; i++) {
+                cache.put("k" + i, i);
+                cache.remove("k" + i);
+            }
+        } finally {
+            running.set(false);
+            filler.join();
+        }
+        assertEquals(0, cache.keySet().stream().filter(k -> k.startsWith("k")).count());
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+    private long now;
+    private TimerWheel<Integer,String> wheel;
+
+    @Before
+    public void setUp() throws Exception {
+        now = System.currentTimeMillis();
+        wheel = new TimerWheel<>(now);
+    }
+
+    @Test
+    public void testExpireAtAllLevels() throws Exception {
+        Random random = new Random(7);
+        long[] deadlines = new long[1000];
+        for(int i=0; i<deadlines.length; i++) {
+            deadlines[i] = now + (long) (random.nextDouble() * TimeUnit.DAYS.toMillis(30));
+            wheel.schedule(i, "v" + i, deadlines[i]);
+        }
+        final List<Integer> expired = new ArrayList<>();
+        long end = now + TimeUnit.DAYS.toMillis(31);
+        while (now < end) {
+            now += TimeUnit.MINUTES.toMillis(7);
+            final long t = now;
+            wheel.advance(now, node -> {
+                assertTrue(node.deadline <= t);
+                assertTrue("expired too late", t - node.deadline <= TimeUnit.MINUTES.toMillis(7));
+                expired.add(node.key);
+                return true;
+            });
+        }
+        assertEquals(deadlines.length, expired.size());
+    }
+
+    @Test
+    public void testDeschedule() throws Exception {
+        TimerWheel.Node<Integer,String> node = wheel.schedule(1, "one", now + 100);
+        wheel.schedule(2, "two", now + 100);
+        wheel.deschedule(node);
+        wheel.deschedule(node);
+        final List<Integer> expired = new ArrayList<>();
+        wheel.advance(now + 5000, n -> expired.add(n.key));
+        assertEquals(1, expired.size());
+        assertEquals(2, (int) expired.get(0));
+    }
+
+    @Test
+    public void testReschedule() throws Exception {
+        wheel.schedule(1, "one", now + 100);
+        final List<Integer> expired = new ArrayList<>();
+        wheel.advance(now + 5000, n -> {
+            if (n.deadline < now + 10000) {
+                n.deadline = now + 10000;
+                return false;
+            }
+            return expired.add(n.key);
+        });
+        assertTrue(expired.isEmpty());
+        wheel.advance(now + 12000, n -> expired.add(n.key));
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        wheel.schedule(1, "one", now + 100);
+        wheel.clear();
+        final List<Integer> expired = new ArrayList<>();
+        wheel.advance(now + 5000, n -> expired.add(n.key));
+        assertTrue(expired.isEmpty());
+    }
+}
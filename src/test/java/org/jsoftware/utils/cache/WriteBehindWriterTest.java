@@ -0,0 +1,147 @@
+package org.jsoftware.utils.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteBehindWriterTest {
+    private List<String> batches;
+    private volatile boolean failing;
+    private WriteBehindWriter<String,Integer> writer;
+
+    @Before
+    public void setUp() throws Exception {
+        batches = new ArrayList<>();
+        writer = new WriteBehindWriter<>(new CacheWriter<String, Integer>() {
+            @Override
+            public void write(String key, Integer value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void delete(String key) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public synchronized void writeAll(Map<? extends String, ? extends Integer> entries) {
+                if (failing) {
+                    throw new IllegalStateException("database down");
+                }
+                batches.add("write " + entries);
+            }
+
+            @Override
+            public synchronized void deleteAll(Collection<? extends String> keys) {
+                batches.add("delete " + keys);
+            }
+        }, 3, 1, TimeUnit.HOURS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writer.close();
+    }
+
+    @Test
+    public void testCoalesced() throws Exception {
+        writer.write("a", 1);
+        writer.write("a", 2);
+        writer.write("b", 1);
+        writer.delete("b");
+        assertEquals(2, writer.getPendingCount());
+        assertTrue(batches.isEmpty());
+        writer.flush();
+        assertEquals("[write {a=2}, delete [b]]", batches.toString());
+        assertEquals(0, writer.getPendingCount());
+    }
+
+    @Test
+    public void testFlushedWhenFull() throws Exception {
+        writer.write("a", 1);
+        writer.write("b", 2);
+        writer.write("c", 3);
+        assertEquals("[write {a=1, b=2, c=3}]", batches.toString());
+    }
+
+    @Test
+    public void testFailedFlushIsRetried() throws Exception {
+        writer.write("a", 1);
+        writer.write("b", 1);
+        failing = true;
+        try {
+            writer.flush();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(2, writer.getPendingCount());
+        }
+        writer.write("a", 2);
+        failing = false;
+        writer.flush();
+        assertEquals("[write {b=1, a=2}]", batches.toString());
+    }
+
+    @Test
+    public void testFailedFlushOfFullQueueDoesNotFailWrite() throws Exception {
+        List<RuntimeException> failures = new ArrayList<>();
+        WriteBehindWriter<String,Integer> w = new WriteBehindWriter<String,Integer>(new CacheWriter<String, Integer>() {
+            @Override
+            public void write(String key, Integer value) {
+                if (failing) {
+                    throw new IllegalStateException("database down");
+                }
+                batches.add("write " + key + "=" + value);
+            }
+
+            @Override
+            public void delete(String key) {
+            }
+        }, 1, 1, TimeUnit.HOURS) {
+            @Override
+            protected void flushFailed(RuntimeException e) {
+                failures.add(e);
+            }
+        };
+        SimpleCache<String,Integer> cache = SimpleCache.<String,Integer>builder().expireAfterWrite(1, TimeUnit.MINUTES).maximumSize(10).writer(w).build();
+        failing = true;
+        cache.put("a", 1);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(1, failures.size());
+        assertEquals(1, w.getPendingCount());
+        failing = false;
+        w.close();
+        assertEquals("[write a=1]", batches.toString());
+    }
+
+    @Test
+    public void testFlushedInBackground() throws Exception {
+        List<Integer> written = new ArrayList<>();
+        try (WriteBehindWriter<String,Integer> w = new WriteBehindWriter<>(new CacheWriter<String, Integer>() {
+            @Override
+            public synchronized void write(String key, Integer value) {
+                written.add(value);
+            }
+
+            @Override
+            public void delete(String key) {
+            }
+        }, 100, 10, TimeUnit.MILLISECONDS)) {
+            w.write("a", 1);
+            for(int i=0; i<100 && w.getPendingCount() > 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, w.getPendingCount());
+        }
+        assertEquals(1, written.size());
+    }
+}
@@ -0,0 +1,141 @@
+package org.jsoftware.utils.cache.invalidation;
+
+import org.jsoftware.utils.cache.Serializer;
+import org.jsoftware.utils.cache.SimpleCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InvalidationBusTest {
+    private static final Serializer<String> STRING_SERIALIZER = new Serializer<String>() {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] data) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+    };
+    private SimpleCache<String,String> cache1, cache2;
+    private InvalidationBus<String> bus1, bus2;
+    private List<byte[]> sent;
+
+    @Before
+    public void setUp() throws Exception {
+        InJvmTransport.Group group = new InJvmTransport.Group();
+        sent = new ArrayList<>();
+        cache1 = new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), 100);
+        cache2 = new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), 100);
+        bus1 = new InvalidationBus<>(cache1, new InJvmTransport(group) {
+            @Override
+            public void send(byte[] message) {
+                sent.add(message);
+                super.send(message);
+            }
+        }, STRING_SERIALIZER, 1, TimeUnit.MINUTES, 64);
+        bus2 = new InvalidationBus<>(cache2, new InJvmTransport(group), STRING_SERIALIZER, 1, TimeUnit.MINUTES);
+        for(int i=0; i<10; i++) {
+            cache1.put("k" + i, "v" + i);
+            cache2.put("k" + i, "v" + i);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        bus1.close();
+        bus2.close();
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        bus1.invalidate("k1");
+        assertFalse(cache1.containsKey("k1"));
+        assertTrue("sent in batch", cache2.containsKey("k1"));
+        bus1.flush();
+        assertFalse(cache2.containsKey("k1"));
+        assertEquals(9, cache2.size());
+    }
+
+    @Test
+    public void testCoalesced() throws Exception {
+        bus1.invalidate("k1");
+        bus1.invalidate("k2");
+        bus1.invalidate("k1");
+        bus1.flush();
+        assertEquals(1, sent.size());
+        assertEquals(8, cache2.size());
+    }
+
+    @Test
+    public void testSplitToMessagesOfMaximumSize() throws Exception {
+        for(int i=0; i<10; i++) {
+            bus1.invalidate("k" + i);
+        }
+        bus1.flush();
+        assertEquals(2, sent.size()); // 13 bytes of header and 8 keys of 6 bytes
+        assertTrue(cache2.isEmpty());
+    }
+
+    @Test
+    public void testOversizedKeyDoesNotDropOtherKeys() throws Exception {
+        String oversized = "oversized-key-that-does-not-fit-in-a-message-of-64-bytes-at-all";
+        cache2.put(oversized, "v");
+        bus1.invalidate("k1");
+        bus1.invalidate(oversized);
+        bus1.invalidate("k2");
+        try {
+            bus1.flush();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(oversized));
+        }
+        assertFalse(cache2.containsKey("k1"));
+        assertFalse(cache2.containsKey("k2"));
+        assertTrue("not sent", cache2.containsKey(oversized));
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        bus1.invalidate("k1");
+        bus1.invalidateAll();
+        bus1.flush();
+        assertEquals(1, sent.size());
+        assertTrue(cache1.isEmpty());
+        assertTrue(cache2.isEmpty());
+    }
+
+    @Test
+    public void testFlushedAfterDelay() throws Exception {
+        InJvmTransport.Group group = new InJvmTransport.Group();
+        SimpleCache<String,String> c = new SimpleCache<>(TimeUnit.MINUTES.toMillis(1), 100);
+        c.put("x", "X");
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        InvalidationBus<String> receiver = new InvalidationBus<>(c, new InJvmTransport(group), STRING_SERIALIZER, 10, TimeUnit.MILLISECONDS);
+        try (InvalidationBus<String> sender = new InvalidationBus<>(new SimpleCache<>(1000, 10), new InJvmTransport(group), STRING_SERIALIZER,
+                10, TimeUnit.MILLISECONDS, UdpTransport.MAX_MESSAGE_SIZE, scheduler)) {
+            sender.invalidate("x");
+            for(int i=0; i<100 && c.containsKey("x"); i++) {
+                Thread.sleep(10);
+            }
+            assertFalse(c.containsKey("x"));
+        } finally {
+            receiver.close();
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.jsoftware.utils.cache.invalidation;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class UdpTransportTest {
+
+    @Test
+    public void testSendToPeer() throws Exception {
+        InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (UdpTransport t1 = new UdpTransport(loopback); UdpTransport t2 = new UdpTransport(loopback)) {
+            BlockingQueue<byte[]> received = new ArrayBlockingQueue<>(10);
+            t2.listen(received::add);
+            t1.addPeer(t2.getLocalAddress());
+            t1.send(new byte[] {1, 2, 3});
+            assertArrayEquals(new byte[] {1, 2, 3}, received.poll(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -5,8 +5,12 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class LRUMapTest {
     private LRUMap<String, Integer> map;
@@ -51,6 +55,108 @@ public class LRUMapTest {
         Assert.assertEquals(0, map.size());
     }
 
+    @Test
+    public void testEvicted() throws Exception {
+        final Map<String,Integer> evicted = new TreeMap<>();
+        LRUMap<String,Integer> m = new LRUMap<String,Integer>(2) {
+            @Override
+            protected void evicted(String key, Integer value) {
+                evicted.put(key, value);
+            }
+        };
+        m.put("1", 1);
+        m.put("2", 2);
+        m.remove("2");
+        m.put("3", 3);
+        m.put("4", 4);
+        Assert.assertArrayEquals(new String[] {"1"}, evicted.keySet().toArray());
+        Assert.assertArrayEquals(new Integer[] {1}, evicted.values().toArray());
+    }
+
+    @Test
+    public void testEvictedWithRemovalListener() throws Exception {
+        final List<Runnable> tasks = new LinkedList<>();
+        final List<String> evicted = new LinkedList<>();
+        LRUMap<String,Integer> m = new LRUMap<String,Integer>(1, (k, v, cause) -> { }, tasks::add) {
+            @Override
+            protected void evicted(String key, Integer value) {
+                evicted.add(key + "=" + value);
+            }
+        };
+        m.put("1", 1);
+        m.put("2", 2);
+        m.putAll(Collections.singletonMap("3", 3));
+        m.merge("4", 4, Integer::sum);
+        Assert.assertEquals("called before notifications are delivered", Arrays.asList("1=1", "2=2", "3=3"), evicted);
+        Assert.assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void testComputeKeepsCapacity() throws Exception {
+        map.computeIfAbsent("1", k -> 1);
+        map.compute("2", (k, v) -> 2);
+        map.merge("3", 3, Integer::sum);
+        map.merge("1", 10, Integer::sum);
+        map.computeIfAbsent("4", k -> 4);
+        Assert.assertEquals(3, map.size());
+        Assert.assertArrayEquals(new String[] {"1", "3", "4"}, map.keySet().stream().sorted().toArray());
+        Assert.assertEquals(Integer.valueOf(11), map.get("1"));
+        Assert.assertNull(map.computeIfPresent("1", (k, v) -> null));
+        Assert.assertFalse(map.containsKey("1"));
+    }
+
+    @Test
+    public void testComputeNullKeepsOrder() throws Exception {
+        final List<String> evicted = new LinkedList<>();
+        LRUMap<String,Integer> m = new LRUMap<String,Integer>(2) {
+            @Override
+            protected void evicted(String key, Integer value) {
+                evicted.add(key);
+            }
+        };
+        Assert.assertNull(m.compute("x", (k, v) -> null));
+        Assert.assertNull(m.computeIfAbsent("y", k -> null));
+        m.put("1", 1);
+        m.put("2", 2);
+        m.get("1");
+        m.put("3", 3);
+        Assert.assertEquals(Arrays.asList("2"), evicted);
+        Assert.assertFalse(m.containsKey("x"));
+        Assert.assertFalse(m.containsKey("y"));
+    }
+
+    @Test
+    public void testRemovalListener() throws Exception {
+        final List<String> removals = new LinkedList<>();
+        LRUMap<String,Integer> m = new LRUMap<>(2, (k, v, cause) -> removals.add(k + "=" + v + ":" + cause), Runnable::run);
+        m.put("1", 1);
+        m.put("1", 11);
+        m.put("2", 2);
+        m.put("3", 3);
+        m.remove("2");
+        m.clear();
+        Assert.assertEquals(Arrays.asList("1=1:REPLACED", "1=11:SIZE", "2=2:EXPLICIT", "3=3:EXPLICIT"), removals);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRemovalsDeliveredAfterModification() throws Exception {
+        final List<Runnable> tasks = new LinkedList<>();
+        final List<String> removals = new LinkedList<>();
+        final LRUMap<String,Integer>[] holder = new LRUMap[1];
+        holder[0] = new LRUMap<>(2, (k, v, cause) -> removals.add(k + "=" + v + ":" + cause + ":" + holder[0].get(k)), tasks::add);
+        holder[0].put("1", 1);
+        holder[0].put("2", 2);
+        Map<String,Integer> m = new TreeMap<>();
+        m.put("1", 11);
+        m.put("3", 3);
+        holder[0].putAll(m);
+        Assert.assertTrue("not delivered by modifying thread", removals.isEmpty());
+        Assert.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        Assert.assertEquals(Arrays.asList("1=1:REPLACED:11", "2=2:SIZE:null"), removals);
+    }
+
     @Test(timeout = 100L)
     public void testPerformance() throws Exception {
         List<Integer> found = new LinkedList<>();